@@ -0,0 +1,130 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class StreamProviderMBTilesTest {
+
+  private static final int ZOOM = 2;
+  private static final int GRID_SIZE = 1 << ZOOM;
+  private static final int TILE_SIZE = 16;
+
+  private Context mContext;
+  private File mFile;
+  private StreamProviderMBTiles mStreamProvider;
+
+  // every tile is filled with a color that encodes its TileView (top down) column and row
+  private static int getColor(int column, int row) {
+    return Color.rgb(column * 40, row * 40, 255);
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    mContext = InstrumentationRegistry.getTargetContext();
+    mFile = new File(mContext.getCacheDir(), "test.mbtiles");
+    mFile.delete();
+    SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(mFile, null);
+    database.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+    // leave the bottom right tile out
+    for (int row = 0; row < GRID_SIZE; row++) {
+      for (int column = 0; column < GRID_SIZE; column++) {
+        if (column == GRID_SIZE - 1 && row == GRID_SIZE - 1) {
+          continue;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(getColor(column, row));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 0, bytes);
+        int tmsRow = GRID_SIZE - 1 - row;
+        database.execSQL("INSERT INTO tiles VALUES (?, ?, ?, ?)", new Object[]{ZOOM, column, tmsRow, bytes.toByteArray()});
+      }
+    }
+    database.close();
+    mStreamProvider = new StreamProviderMBTiles(mFile.getAbsolutePath());
+  }
+
+  @After
+  public void tearDown() {
+    mStreamProvider.close();
+    mFile.delete();
+  }
+
+  private static int decodeColor(InputStream stream) {
+    Bitmap bitmap = BitmapFactory.decodeStream(stream);
+    assertNotNull(bitmap);
+    return bitmap.getPixel(TILE_SIZE / 2, TILE_SIZE / 2);
+  }
+
+  @Test
+  public void getStream_flipsRowsAndSupportsReset() throws Exception {
+    InputStream stream = mStreamProvider.getStream(1, 0, mContext, ZOOM);
+    assertTrue(stream.markSupported());
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeStream(stream, null, options);
+    assertEquals(TILE_SIZE, options.outWidth);
+    stream.reset();
+    assertEquals(getColor(1, 0), decodeColor(stream));
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void getStream_throwsFileNotFoundForMissingTile() throws Exception {
+    mStreamProvider.getStream(GRID_SIZE - 1, GRID_SIZE - 1, mContext, ZOOM);
+  }
+
+  @Test
+  public void getStreams_returnsEveryExistingTileInBlock() throws Exception {
+    Set<String> received = new HashSet<>();
+    mStreamProvider.getStreams(GRID_SIZE - 2, GRID_SIZE - 2, 2, mContext, ZOOM, (column, row, stream) -> {
+      assertEquals(getColor(column, row), decodeColor(stream));
+      received.add(column + ":" + row);
+    });
+    assertEquals(3, received.size());
+    assertFalse(received.contains((GRID_SIZE - 1) + ":" + (GRID_SIZE - 1)));
+  }
+
+  @Test
+  public void getStream_worksFromSeveralThreads() throws Exception {
+    AtomicReference<Throwable> error = new AtomicReference<>();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      int column = i;
+      threads[i] = new Thread(() -> {
+        try {
+          for (int row = 0; row < GRID_SIZE - 1; row++) {
+            assertEquals(getColor(column, row), decodeColor(mStreamProvider.getStream(column, row, mContext, ZOOM)));
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(error.get());
+  }
+
+}
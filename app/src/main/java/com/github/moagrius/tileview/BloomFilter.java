@@ -0,0 +1,108 @@
+package com.github.moagrius.tileview;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A plain Bloom filter over String keys.
+ *
+ * A negative answer from mightContain is definite, a positive answer is probable.  Keys cannot be removed, so an evicted
+ * key stays a (harmless) false positive until the filter is rebuilt.
+ */
+public class BloomFilter {
+
+  private static final int VERSION = 1;
+
+  private final long[] mBits;
+  private final int mBitCount;
+  private final int mHashCount;
+  private final int mCapacity;
+  private int mCount;
+
+  /**
+   * @param capacity The number of insertions after which the false positive rate exceeds the target.
+   * @param falsePositiveRate The target false positive rate at capacity, e.g., 0.01.
+   */
+  public BloomFilter(int capacity, double falsePositiveRate) {
+    mCapacity = Math.max(1, capacity);
+    // m = -n ln(p) / (ln 2)^2, k = (m / n) ln 2
+    int bits = (int) Math.ceil(-mCapacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    mBits = new long[Math.max(1, (bits + 63) >>> 6)];
+    mBitCount = mBits.length << 6;
+    mHashCount = Math.max(1, (int) Math.round((double) mBitCount / mCapacity * Math.log(2)));
+  }
+
+  public synchronized void put(String key) {
+    int h1 = key.hashCode();
+    int h2 = secondaryHash(key);
+    for (int i = 0; i < mHashCount; i++) {
+      int index = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitCount;
+      mBits[index >>> 6] |= 1L << index;
+    }
+    mCount++;
+  }
+
+  public synchronized boolean mightContain(String key) {
+    int h1 = key.hashCode();
+    int h2 = secondaryHash(key);
+    for (int i = 0; i < mHashCount; i++) {
+      int index = ((h1 + i * h2) & Integer.MAX_VALUE) % mBitCount;
+      if ((mBits[index >>> 6] & (1L << index)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public synchronized void clear() {
+    for (int i = 0; i < mBits.length; i++) {
+      mBits[i] = 0;
+    }
+    mCount = 0;
+  }
+
+  /**
+   * @return True if more keys have been put than the filter was sized for, and it should be rebuilt.
+   */
+  public synchronized boolean isSaturated() {
+    return mCount > mCapacity;
+  }
+
+  public synchronized void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(VERSION);
+    out.writeInt(mBits.length);
+    out.writeInt(mHashCount);
+    out.writeInt(mCount);
+    for (long word : mBits) {
+      out.writeLong(word);
+    }
+  }
+
+  /**
+   * @return True if the persisted filter was compatible with this one and was loaded, false otherwise.
+   */
+  public synchronized boolean readFrom(DataInputStream in) throws IOException {
+    if (in.readInt() != VERSION || in.readInt() != mBits.length || in.readInt() != mHashCount) {
+      return false;
+    }
+    int count = in.readInt();
+    for (int i = 0; i < mBits.length; i++) {
+      mBits[i] = in.readLong();
+    }
+    mCount = count;
+    return true;
+  }
+
+  // FNV-1a, so the two hashes are independent of each other
+  private static int secondaryHash(String key) {
+    int hash = 0x811c9dc5;
+    for (int i = 0; i < key.length(); i++) {
+      hash ^= key.charAt(i);
+      hash *= 0x01000193;
+    }
+    // must be odd so the probe sequence doesn't collapse
+    return hash | 1;
+  }
+
+}
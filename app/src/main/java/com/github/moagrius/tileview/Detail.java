@@ -28,6 +28,9 @@ public class Detail {
   private int mSample;
   private int mZoom;
   private Object mData;
+  // the real extent of this detail level's tile grid, 0 if unknown
+  private int mColumns;
+  private int mRows;
 
   public Detail(int zoom, Object data) {
     mData = data;
@@ -35,6 +38,11 @@ public class Detail {
     mSample = 1 << zoom;
   }
 
+  public Detail(int zoom, Object data, int columns, int rows) {
+    this(zoom, data);
+    setGridSize(columns, rows);
+  }
+
   public Object getData() {
     return mData;
   }
@@ -47,6 +55,31 @@ public class Detail {
     return mSample;
   }
 
+  public void setGridSize(int columns, int rows) {
+    mColumns = columns;
+    mRows = rows;
+  }
+
+  public boolean hasGridSize() {
+    return mColumns > 0 && mRows > 0;
+  }
+
+  public int getColumns() {
+    return mColumns;
+  }
+
+  public int getRows() {
+    return mRows;
+  }
+
+  // if we don't know the grid size, assume the tile exists
+  public boolean contains(int column, int row) {
+    if (column < 0 || row < 0) {
+      return false;
+    }
+    return !hasGridSize() || (column < mColumns && row < mRows);
+  }
+
   @Override
   public int hashCode() {
     int hash = 17;
@@ -23,4 +23,30 @@ public class DetailList extends ArrayList<Detail> {
     return null;
   }
 
+  /**
+   * @return The closest defined detail level that's coarser (smaller) than zoom, or null if there isn't one.
+   */
+  public Detail getCoarserThan(int zoom) {
+    for (int i = zoom + 1; i < size(); i++) {
+      Detail detail = get(i);
+      if (detail != null) {
+        return detail;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The closest defined detail level that's finer (larger) than zoom, or null if there isn't one.
+   */
+  public Detail getFinerThan(int zoom) {
+    for (int i = Math.min(zoom, size()) - 1; i >= 0; i--) {
+      Detail detail = get(i);
+      if (detail != null) {
+        return detail;
+      }
+    }
+    return null;
+  }
+
 }
@@ -2,132 +2,228 @@ package com.github.moagrius.tileview;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.CompressFormat;
-import android.graphics.BitmapFactory;
 
-import com.jakewharton.disklrucache.DiskLruCache;
+import com.github.moagrius.tileview.io.CacheMetadata;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
+/**
+ * Disk cache for tile bitmaps.
+ *
+ * DiskLruCache synchronizes get, edit, remove and flush on a single journal, so with several decode workers hitting the
+ * cache at once, they'd mostly be waiting on each other.  Keys are instead spread across independent shards, each with
+ * its own directory, journal and an equal slice of the size budget, so concurrent workers usually contend on different
+ * locks and files.
+ */
 public class DiskCache implements TileView.BitmapCache {
 
   private static final String DIRECTORY_NAME = "tileview-cache";
-  private static final int IO_BUFFER_SIZE = 8 * 1024;
+  private static final String FILTER_FILE_EXTENSION = ".bloom";
 
-  private DiskLruCache mDiskCache;
+  private static final String THREAD_NAME = "tileview-disk-cache-open";
 
-  public DiskCache(Context context, int size) throws IOException {
-    File directory = new File(context.getCacheDir(), DIRECTORY_NAME);
-    mDiskCache = DiskLruCache.open(directory, 1, 1, size);
+  // fixed, rather than the number of cores - on Android that changes with power state, and a different count is a
+  // different set of shards, i.e., an empty cache
+  public static final int DEFAULT_SHARD_COUNT = 4;
+  // below this, a shard can't hold more than a few tiles and evicts nearly everything it's given, so use fewer shards
+  private static final long MINIMUM_SHARD_SIZE = 1024 * 1024;
+
+  private final File mRoot;
+  private final int mSize;
+  private final int mShardCount;
+  // null until opened
+  private volatile DiskCacheShard[] mShards;
+  private boolean mIsClosed;
+
+  public DiskCache(Context context, int size) {
+    this(context, size, DEFAULT_SHARD_COUNT);
   }
 
-  @Override
-  public Bitmap put(String key, Bitmap data) {
-    if (contains(key)) {
-      return data;
-    }
-    DiskLruCache.Editor editor = null;
+  public DiskCache(Context context, int size, int shardCount) {
+    mRoot = new File(context.getCacheDir(), DIRECTORY_NAME);
+    mSize = size;
+    mShardCount = (int) Math.max(1, Math.min(shardCount, size / MINIMUM_SHARD_SIZE));
+  }
+
+  /**
+   * Opens every shard, which means replaying each shard's journal.  On a large cache this can take a while, so this
+   * should not be called from the UI thread - see openAsync.  Until this completes, the cache reports misses and
+   * ignores writes.
+   */
+  public void open() throws IOException {
+    deleteOtherEntries(mRoot);
+    DiskCacheShard[] shards = new DiskCacheShard[mShardCount];
+    long shardSize = mSize / mShardCount;
     try {
-      editor = mDiskCache.edit(key);
-      if (editor != null) {
-        if (writeBitmapToCache(data, editor)) {
-          mDiskCache.flush();
-          editor.commit();
-        } else {
-          editor.abort();
-        }
+      for (int i = 0; i < mShardCount; i++) {
+        File directory = new File(mRoot, getShardName(i));
+        File filterFile = new File(mRoot, getShardName(i) + FILTER_FILE_EXTENSION);
+        shards[i] = new DiskCacheShard(directory, filterFile, shardSize);
       }
     } catch (IOException e) {
-      try {
-        if (editor != null) {
-          editor.abort();
+      // don't leave the shards that did open holding their journals
+      for (DiskCacheShard shard : shards) {
+        if (shard != null) {
+          shard.close();
         }
-      } catch (IOException ignored) {
-        //
       }
+      throw e;
+    }
+    synchronized (this) {
+      // we may have been closed while opening
+      if (mIsClosed) {
+        for (DiskCacheShard shard : shards) {
+          shard.close();
+        }
+        return;
+      }
+      mShards = shards;
     }
-    return data;
   }
 
-  @Override
-  public Bitmap get(String key) {
-    DiskLruCache.Snapshot snapshot = null;
-    try {
-      snapshot = mDiskCache.get(key);
-      if (snapshot == null) {
-        return null;
-      }
-      InputStream inputStream = snapshot.getInputStream(0);
-      if (inputStream != null) {
-        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, IO_BUFFER_SIZE);
-        return BitmapFactory.decodeStream(bufferedInputStream);
+  public void openAsync() {
+    Thread thread = new Thread(() -> {
+      try {
+        open();
+      } catch (IOException e) {
+        // no op, we'll just run without a disk cache
       }
-    } catch (IOException e) {
-      // no op
-    } finally {
-      if (snapshot != null) {
-        snapshot.close();
+    }, THREAD_NAME);
+    thread.start();
+  }
+
+  public boolean isOpen() {
+    return mShards != null;
+  }
+
+  /**
+   * @return Roughly how many tiles fit in the cache, going by the size of a typical compressed tile.
+   */
+  public int getEstimatedEntryCount() {
+    return mSize / DiskCacheShard.ESTIMATED_ENTRY_SIZE;
+  }
+
+  // the shard count is part of the directory name - a different count distributes keys differently, so it can't reuse
+  // another configuration's shards
+  private String getShardName(int index) {
+    return mShardCount + "-" + index;
+  }
+
+  // anything in the root that isn't one of our shards (or its filter) is from another shard count, or from before
+  // sharding, when the root directory was itself a DiskLruCache directory - it's unreachable, but it'd still take space
+  private void deleteOtherEntries(File root) {
+    File[] files = root.listFiles();
+    if (files == null) {
+      return;
+    }
+    String prefix = mShardCount + "-";
+    for (File file : files) {
+      String name = file.getName();
+      if (!name.startsWith(prefix) || !isShardIndex(name.substring(prefix.length()))) {
+        delete(file);
       }
     }
-    return null;
   }
 
-  @Override
-  public Bitmap remove(String key) {
+  // "i" or "i.bloom", for i < the shard count
+  private boolean isShardIndex(String suffix) {
+    if (suffix.endsWith(FILTER_FILE_EXTENSION)) {
+      suffix = suffix.substring(0, suffix.length() - FILTER_FILE_EXTENSION.length());
+    }
     try {
-      mDiskCache.remove(key);
-    } catch (IOException e) {
-      // no op
+      int index = Integer.parseInt(suffix);
+      return index >= 0 && index < mShardCount;
+    } catch (NumberFormatException e) {
+      return false;
     }
-    return null;
   }
 
-  private boolean writeBitmapToCache(Bitmap bitmap, DiskLruCache.Editor editor) {
-    OutputStream outputStream = null;
-    try {
-      outputStream = editor.newOutputStream(0);
-      outputStream = new BufferedOutputStream(outputStream, IO_BUFFER_SIZE);
-      return bitmap.compress(CompressFormat.PNG, 0, outputStream);
-    } catch (Exception e) {
-      // no op
-    } finally {
-      try {
-        if (outputStream != null) {
-          outputStream.close();
-        }
-      } catch (IOException e) {
-        // no op
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
       }
     }
-    return false;
+    file.delete();
   }
 
-  private boolean contains(String key) {
-    boolean contained = false;
-    DiskLruCache.Snapshot snapshot = null;
-    try {
-      snapshot = mDiskCache.get(key);
-      contained = snapshot != null;
-    } catch (IOException e) {
-      // no op
-    } finally {
-      if (snapshot != null) {
-        snapshot.close();
+  private static DiskCacheShard getShard(DiskCacheShard[] shards, String key) {
+    return shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+  }
+
+  @Override
+  public Bitmap put(String key, Bitmap data) {
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return data;
+    }
+    return getShard(shards, key).put(key, data);
+  }
+
+  public Bitmap put(String key, Bitmap data, CacheMetadata metadata) {
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return data;
+    }
+    return getShard(shards, key).put(key, data, metadata);
+  }
+
+  public CacheMetadata getMetadata(String key) {
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return null;
+    }
+    return getShard(shards, key).getMetadata(key);
+  }
+
+  public void setMetadata(String key, CacheMetadata metadata) {
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return;
+    }
+    getShard(shards, key).setMetadata(key, metadata);
+  }
+
+  @Override
+  public Bitmap get(String key) {
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return null;
+    }
+    return getShard(shards, key).get(key);
+  }
+
+  @Override
+  public Bitmap remove(String key) {
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return null;
+    }
+    return getShard(shards, key).remove(key);
+  }
+
+  /**
+   * Closes every shard, persisting their key filters so the next open doesn't need to rebuild them.
+   */
+  public synchronized void close() {
+    mIsClosed = true;
+    if (mShards != null) {
+      for (DiskCacheShard shard : mShards) {
+        shard.close();
       }
+      mShards = null;
     }
-    return contained;
   }
 
   public void clear() {
-    try {
-      mDiskCache.delete();
-    } catch (IOException e) {
-      // no op
+    DiskCacheShard[] shards = mShards;
+    if (shards == null) {
+      return;
+    }
+    for (DiskCacheShard shard : shards) {
+      shard.clear();
     }
   }
 
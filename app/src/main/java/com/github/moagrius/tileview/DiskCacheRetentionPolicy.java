@@ -0,0 +1,122 @@
+package com.github.moagrius.tileview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which disk cache entries to evict, weighting each entry by how much of the image it covers and what it costs to
+ * rebuild, rather than by recency alone.
+ *
+ * This is GreedyDual: each entry has a priority of L + cost, refreshed on every access, where L is the priority of the
+ * last evicted entry.  Entries are evicted lowest priority first.  Cheap, fine detail tiles age out quickly, while
+ * coarse patches survive several rounds of eviction unless they're never looked at again.
+ *
+ * Cost is derived from the tile key (column_row_sample_zoom).  A tile at detail zoom z with image sample s covers
+ * (s << z)^2 full size tiles, and a patch with sample s took s^2 reads to compose, so we use 1 + log2 of the area.
+ * The log keeps a single overview from being worth (literally) hundreds of detail tiles, which would make it immortal.
+ */
+public class DiskCacheRetentionPolicy {
+
+  private static final char KEY_DELIMITER = '_';
+  // when over budget, evict down to this fraction so we aren't sorting on every put once the cache is full
+  private static final float TRIM_RATIO = 0.95f;
+
+  private final Map<String, Entry> mEntries = new HashMap<>();
+  private final long mMaxSize;
+  private long mSize;
+  private double mInflation;
+
+  public DiskCacheRetentionPolicy(long maxSize) {
+    mMaxSize = maxSize;
+  }
+
+  public synchronized void onPut(String key, long size) {
+    Entry entry = mEntries.get(key);
+    if (entry == null) {
+      entry = new Entry(key, getCost(key));
+      mEntries.put(key, entry);
+    } else {
+      mSize -= entry.size;
+    }
+    entry.size = size;
+    entry.priority = mInflation + entry.cost;
+    mSize += size;
+  }
+
+  public synchronized void onAccess(String key) {
+    Entry entry = mEntries.get(key);
+    if (entry != null) {
+      entry.priority = mInflation + entry.cost;
+    }
+  }
+
+  public synchronized void onRemove(String key) {
+    Entry entry = mEntries.remove(key);
+    if (entry != null) {
+      mSize -= entry.size;
+    }
+  }
+
+  /**
+   * Forgets evicted entries and returns their keys, which the caller must remove from the underlying cache.
+   *
+   * @return Keys to evict, or an empty list if we're within budget.
+   */
+  public synchronized List<String> trim() {
+    if (mSize <= mMaxSize) {
+      return Collections.emptyList();
+    }
+    List<Entry> candidates = new ArrayList<>(mEntries.values());
+    Collections.sort(candidates, (a, b) -> Double.compare(a.priority, b.priority));
+    List<String> evicted = new ArrayList<>();
+    long target = (long) (mMaxSize * TRIM_RATIO);
+    for (Entry entry : candidates) {
+      if (mSize <= target) {
+        break;
+      }
+      mEntries.remove(entry.key);
+      mSize -= entry.size;
+      mInflation = entry.priority;
+      evicted.add(entry.key);
+    }
+    return evicted;
+  }
+
+  public synchronized void clear() {
+    mEntries.clear();
+    mSize = 0;
+    mInflation = 0;
+  }
+
+  public static int getCost(String key) {
+    // key is column_row_sample_zoom, we only need the last two
+    int zoomDelimiter = key.lastIndexOf(KEY_DELIMITER);
+    int sampleDelimiter = zoomDelimiter > 0 ? key.lastIndexOf(KEY_DELIMITER, zoomDelimiter - 1) : -1;
+    if (sampleDelimiter < 0) {
+      return 1;
+    }
+    try {
+      int sample = Integer.parseInt(key.substring(sampleDelimiter + 1, zoomDelimiter));
+      int zoom = Integer.parseInt(key.substring(zoomDelimiter + 1));
+      // samples are powers of 2, so trailing zeros is log2
+      return 1 + 2 * (Integer.numberOfTrailingZeros(sample) + zoom);
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+  private static class Entry {
+    final String key;
+    final int cost;
+    long size;
+    double priority;
+    Entry(String key, int cost) {
+      this.key = key;
+      this.cost = cost;
+    }
+  }
+
+}
@@ -0,0 +1,344 @@
+package com.github.moagrius.tileview;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+
+import com.github.moagrius.tileview.io.CacheMetadata;
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * One independent DiskLruCache (with its own journal, lock, key filter and retention policy), holding a slice of the
+ * DiskCache key space.
+ */
+class DiskCacheShard implements TileView.BitmapCache {
+
+  // bump when the key format or entry layout changes, DiskLruCache will discard entries written by other versions
+  private static final int APP_VERSION = 3;
+  private static final String JOURNAL_FILE_NAME = "journal";
+  // each entry is the bitmap, and its CacheMetadata (empty if it has none)
+  private static final int VALUE_COUNT = 2;
+  private static final int BITMAP_INDEX = 0;
+  private static final int METADATA_INDEX = 1;
+  // DiskLruCache writes clean entries to "key.index"; the bitmap is the one that matters for size and the filter
+  private static final String ENTRY_FILE_SUFFIX = "." + BITMAP_INDEX;
+  private static final int IO_BUFFER_SIZE = 8 * 1024;
+  // a rough guess at the size of a compressed tile, used to size the bloom filter from the cache size
+  static final int ESTIMATED_ENTRY_SIZE = 16 * 1024;
+  private static final int MINIMUM_FILTER_CAPACITY = 1024;
+  private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+  // the retention policy enforces the real budget, DiskLruCache's own LRU trim is only a backstop well above it
+  private static final int LRU_BACKSTOP_MULTIPLIER = 2;
+
+  private DiskLruCache mDiskCache;
+  private File mDirectory;
+  private File mFilterFile;
+  private int mFilterCapacity;
+  private volatile BloomFilter mFilter;
+  private DiskCacheRetentionPolicy mRetentionPolicy;
+
+  DiskCacheShard(File directory, File filterFile, long size) throws IOException {
+    mDirectory = directory;
+    mFilterFile = filterFile;
+    mDiskCache = DiskLruCache.open(mDirectory, APP_VERSION, VALUE_COUNT, size * LRU_BACKSTOP_MULTIPLIER);
+    mRetentionPolicy = new DiskCacheRetentionPolicy(size);
+    // on a cold cache, most lookups are misses - the filter lets us answer those without touching disk or the journal lock
+    mFilterCapacity = (int) Math.max(MINIMUM_FILTER_CAPACITY, size / ESTIMATED_ENTRY_SIZE);
+    mFilter = new BloomFilter(mFilterCapacity, FILTER_FALSE_POSITIVE_RATE);
+    if (!readFilter()) {
+      rebuildFilter();
+    }
+    populateRetentionPolicy();
+  }
+
+  @Override
+  public Bitmap put(String key, Bitmap data) {
+    return put(key, data, null);
+  }
+
+  public Bitmap put(String key, Bitmap data, CacheMetadata metadata) {
+    if (mFilter.mightContain(key) && contains(key)) {
+      return data;
+    }
+    DiskLruCache.Editor editor = null;
+    try {
+      editor = mDiskCache.edit(key);
+      if (editor != null) {
+        if (writeBitmapToCache(data, editor)) {
+          editor.set(METADATA_INDEX, metadata == null ? "" : metadata.encode());
+          mDiskCache.flush();
+          editor.commit();
+          mFilter.put(key);
+          mRetentionPolicy.onPut(key, getEntryFile(key).length());
+          trimToSize();
+          // evicted keys accumulate as false positives; once we've outgrown the filter, start fresh from disk
+          if (mFilter.isSaturated()) {
+            rebuildFilter();
+          }
+        } else {
+          editor.abort();
+        }
+      }
+    } catch (IOException e) {
+      try {
+        if (editor != null) {
+          editor.abort();
+        }
+      } catch (IOException ignored) {
+        //
+      }
+    }
+    return data;
+  }
+
+  @Override
+  public Bitmap get(String key) {
+    // definite miss, skip the disk entirely
+    if (!mFilter.mightContain(key)) {
+      return null;
+    }
+    DiskLruCache.Snapshot snapshot = null;
+    try {
+      snapshot = mDiskCache.get(key);
+      if (snapshot == null) {
+        return null;
+      }
+      mRetentionPolicy.onAccess(key);
+      InputStream inputStream = snapshot.getInputStream(BITMAP_INDEX);
+      if (inputStream != null) {
+        BufferedInputStream bufferedInputStream = new BufferedInputStream(inputStream, IO_BUFFER_SIZE);
+        return BitmapFactory.decodeStream(bufferedInputStream);
+      }
+    } catch (IOException e) {
+      // no op
+    } finally {
+      if (snapshot != null) {
+        snapshot.close();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The metadata stored with the entry, or null if there's no entry or it was stored without any.
+   */
+  public CacheMetadata getMetadata(String key) {
+    if (!mFilter.mightContain(key)) {
+      return null;
+    }
+    DiskLruCache.Snapshot snapshot = null;
+    try {
+      snapshot = mDiskCache.get(key);
+      if (snapshot != null) {
+        return CacheMetadata.decode(snapshot.getString(METADATA_INDEX));
+      }
+    } catch (IOException e) {
+      // no op
+    } finally {
+      if (snapshot != null) {
+        snapshot.close();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Replaces the metadata of an existing entry (e.g., a revalidated tile has a new expiry), leaving the bitmap alone.
+   */
+  public void setMetadata(String key, CacheMetadata metadata) {
+    DiskLruCache.Editor editor = null;
+    try {
+      // only edit existing entries - a new entry with no bitmap can't be committed
+      if (!mFilter.mightContain(key) || !contains(key)) {
+        return;
+      }
+      editor = mDiskCache.edit(key);
+      if (editor != null) {
+        editor.set(METADATA_INDEX, metadata.encode());
+        editor.commit();
+      }
+    } catch (IOException | IllegalStateException e) {
+      try {
+        if (editor != null) {
+          editor.abort();
+        }
+      } catch (IOException | IllegalStateException ignored) {
+        //
+      }
+    }
+  }
+
+  @Override
+  public Bitmap remove(String key) {
+    try {
+      mDiskCache.remove(key);
+      mRetentionPolicy.onRemove(key);
+    } catch (IOException e) {
+      // no op
+    }
+    return null;
+  }
+
+  private void trimToSize() {
+    for (String key : mRetentionPolicy.trim()) {
+      try {
+        mDiskCache.remove(key);
+      } catch (IOException e) {
+        // no op
+      }
+    }
+  }
+
+  private File getEntryFile(String key) {
+    return new File(mDirectory, key + ENTRY_FILE_SUFFIX);
+  }
+
+  private void populateRetentionPolicy() {
+    File[] files = mDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(ENTRY_FILE_SUFFIX)) {
+        mRetentionPolicy.onPut(name.substring(0, name.length() - ENTRY_FILE_SUFFIX.length()), file.length());
+      }
+    }
+  }
+
+  private boolean writeBitmapToCache(Bitmap bitmap, DiskLruCache.Editor editor) {
+    OutputStream outputStream = null;
+    try {
+      outputStream = editor.newOutputStream(BITMAP_INDEX);
+      outputStream = new BufferedOutputStream(outputStream, IO_BUFFER_SIZE);
+      return bitmap.compress(CompressFormat.PNG, 0, outputStream);
+    } catch (Exception e) {
+      // no op
+    } finally {
+      try {
+        if (outputStream != null) {
+          outputStream.close();
+        }
+      } catch (IOException e) {
+        // no op
+      }
+    }
+    return false;
+  }
+
+  private boolean contains(String key) {
+    boolean contained = false;
+    DiskLruCache.Snapshot snapshot = null;
+    try {
+      snapshot = mDiskCache.get(key);
+      contained = snapshot != null;
+    } catch (IOException e) {
+      // no op
+    } finally {
+      if (snapshot != null) {
+        snapshot.close();
+      }
+    }
+    return contained;
+  }
+
+  // the filter has no removal, so keys we remove (or that DiskLruCache evicts) are false positives until the next rebuild
+  // build into a new instance and swap, so concurrent readers never see a half-filled filter (which would give false negatives)
+  // sized for at least twice the entries there are - if entries are smaller than estimated, a filter sized from the
+  // estimate would be saturated as soon as it's built, and every put would list the directory again
+  private void rebuildFilter() {
+    String[] names = mDirectory.list();
+    if (names == null) {
+      names = new String[0];
+    }
+    int count = 0;
+    for (String name : names) {
+      if (name.endsWith(ENTRY_FILE_SUFFIX)) {
+        count++;
+      }
+    }
+    BloomFilter filter = new BloomFilter(Math.max(mFilterCapacity, count * 2), FILTER_FALSE_POSITIVE_RATE);
+    for (String name : names) {
+      if (name.endsWith(ENTRY_FILE_SUFFIX)) {
+        filter.put(name.substring(0, name.length() - ENTRY_FILE_SUFFIX.length()));
+      }
+    }
+    mFilter = filter;
+  }
+
+  // the persisted filter is only trusted if nothing touched the journal after it was written
+  private boolean readFilter() {
+    File journal = new File(mDirectory, JOURNAL_FILE_NAME);
+    if (!mFilterFile.exists() || mFilterFile.lastModified() < journal.lastModified()) {
+      return false;
+    }
+    DataInputStream inputStream = null;
+    try {
+      inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFilterFile), IO_BUFFER_SIZE));
+      return mFilter.readFrom(inputStream);
+    } catch (IOException e) {
+      return false;
+    } finally {
+      try {
+        if (inputStream != null) {
+          inputStream.close();
+        }
+      } catch (IOException e) {
+        // no op
+      }
+      // if we crash before the next close, the filter on disk would be out of sync
+      mFilterFile.delete();
+    }
+  }
+
+  private void writeFilter() {
+    DataOutputStream outputStream = null;
+    try {
+      outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFilterFile), IO_BUFFER_SIZE));
+      mFilter.writeTo(outputStream);
+    } catch (IOException e) {
+      mFilterFile.delete();
+    } finally {
+      try {
+        if (outputStream != null) {
+          outputStream.close();
+        }
+      } catch (IOException e) {
+        // no op
+      }
+    }
+  }
+
+  // persist the key filter on close, so the next open doesn't need to rebuild it
+  public void close() {
+    try {
+      mDiskCache.close();
+      writeFilter();
+    } catch (IOException e) {
+      // no op
+    }
+  }
+
+  public void clear() {
+    try {
+      mDiskCache.delete();
+      mRetentionPolicy.clear();
+      mFilter.clear();
+      mFilterFile.delete();
+    } catch (IOException e) {
+      // no op
+    }
+  }
+
+}
@@ -5,6 +5,8 @@ import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.os.Build;
 
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -14,7 +16,13 @@ import java.util.Map;
  */
 public class MemoryCache implements TileView.BitmapCache, TileView.BitmapPool {
 
+  // a few bitmaps handed back unused, reused before anything's taken from the cache
+  private static final int MAXIMUM_SPARE_BITMAPS = 4;
+
   private LinkedHashMap<String, Bitmap> mMap = new LinkedHashMap<>(0, 0.75f, true);
+  private ArrayDeque<Bitmap> mSpares = new ArrayDeque<>();
+  // bitmaps being drawn on another thread - they stay cached, but aren't handed out for reuse
+  private IdentityHashMap<Bitmap, Integer> mPins = new IdentityHashMap<>();
   private int mMaxSize;
   private int mSize;
 
@@ -69,17 +77,26 @@ public class MemoryCache implements TileView.BitmapCache, TileView.BitmapPool {
 
   @Override
   public synchronized Bitmap getBitmapForReuse(Tile tile) {
+    BitmapFactory.Options options = tile.getMeasureOptions();
+    Iterator<Bitmap> spares = mSpares.iterator();
+    while (spares.hasNext()) {
+      Bitmap candidate = spares.next();
+      if (qualifies(candidate, options)) {
+        spares.remove();
+        candidate.eraseColor(Color.BLACK);
+        return candidate;
+      }
+    }
     if (mMap.isEmpty()) {
       return null;
     }
-    BitmapFactory.Options options = tile.getMeasureOptions();
     Iterator<Bitmap> iterator = mMap.values().iterator();
     while (iterator.hasNext()) {
       Bitmap candidate = iterator.next();
       if (candidate == null) {
         break;
       }
-      if (qualifies(candidate, options)) {
+      if (qualifies(candidate, options) && !mPins.containsKey(candidate)) {
         iterator.remove();
         mSize -= sizeOf(candidate);
         candidate.eraseColor(Color.BLACK);
@@ -89,6 +106,32 @@ public class MemoryCache implements TileView.BitmapCache, TileView.BitmapPool {
     return null;
   }
 
+  @Override
+  public synchronized void recycle(Bitmap bitmap) {
+    if (bitmap.isMutable() && mSpares.size() < MAXIMUM_SPARE_BITMAPS) {
+      mSpares.add(bitmap);
+    }
+  }
+
+  @Override
+  public synchronized void pin(Bitmap bitmap) {
+    Integer count = mPins.get(bitmap);
+    mPins.put(bitmap, count == null ? 1 : count + 1);
+  }
+
+  @Override
+  public synchronized void unpin(Bitmap bitmap) {
+    Integer count = mPins.get(bitmap);
+    if (count == null) {
+      return;
+    }
+    if (count == 1) {
+      mPins.remove(bitmap);
+    } else {
+      mPins.put(bitmap, count - 1);
+    }
+  }
+
   private static boolean qualifies(Bitmap candidate, BitmapFactory.Options targetOptions) {
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
       int width = targetOptions.outWidth / targetOptions.inSampleSize;
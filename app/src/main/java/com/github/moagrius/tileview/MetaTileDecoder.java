@@ -0,0 +1,165 @@
+package com.github.moagrius.tileview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import com.github.moagrius.tileview.io.MetaTileStreamProvider;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Decodes tiles out of meta-tiles (see MetaTileStreamProvider).
+ *
+ * The first Tile to need a block fetches it and opens a BitmapRegionDecoder for it, on its own decode thread; every
+ * other Tile in the block waits for that and then decodes its own region, in parallel.  The most recently used blocks
+ * stay open, since the tiles of one block usually arrive together, and a decoder is only recycled once it's been
+ * evicted and no Tile is still reading from it.
+ */
+class MetaTileDecoder {
+
+  private static final int MAXIMUM_OPEN_BLOCKS = 8;
+
+  private final MetaTileStreamProvider mStreamProvider;
+  private final int mMetaTileSize;
+  private final int mTileSize;
+  private final Map<String, Block> mBlocks = new LinkedHashMap<>(MAXIMUM_OPEN_BLOCKS, 0.75f, true);
+
+  MetaTileDecoder(MetaTileStreamProvider streamProvider, int tileSize) {
+    mStreamProvider = streamProvider;
+    mMetaTileSize = streamProvider.getMetaTileSize();
+    mTileSize = tileSize;
+  }
+
+  /**
+   * @return The tile at column, row of the detail level, decoded with options, or null if it's outside its meta-tile.
+   * @throws FileNotFoundException If the meta-tile doesn't exist.
+   */
+  Bitmap decode(Detail detail, int column, int row, Context context, BitmapFactory.Options options) throws Exception {
+    int metaColumn = column / mMetaTileSize;
+    int metaRow = row / mMetaTileSize;
+    Block block = acquire(detail, metaColumn, metaRow, context);
+    try {
+      BitmapRegionDecoder decoder = block.get();
+      int left = (column - metaColumn * mMetaTileSize) * mTileSize;
+      int top = (row - metaRow * mMetaTileSize) * mTileSize;
+      Rect region = new Rect(left, top, left + mTileSize, top + mTileSize);
+      // an unpadded edge block may be short of a full tile, or not reach this one at all
+      if (!region.intersect(0, 0, decoder.getWidth(), decoder.getHeight())) {
+        return null;
+      }
+      return decoder.decodeRegion(region, options);
+    } finally {
+      release(block);
+    }
+  }
+
+  private synchronized Block acquire(Detail detail, int metaColumn, int metaRow, Context context) {
+    String key = metaColumn + "_" + metaRow + "_" + detail.getZoom();
+    Block block = mBlocks.get(key);
+    if (block == null) {
+      Object data = detail.getData();
+      block = new Block(key, () -> {
+        InputStream stream = mStreamProvider.getMetaTileStream(metaColumn, metaRow, context, data);
+        try {
+          return BitmapRegionDecoder.newInstance(stream, false);
+        } finally {
+          stream.close();
+        }
+      });
+      mBlocks.put(key, block);
+      trimToSize();
+    }
+    block.users++;
+    return block;
+  }
+
+  private synchronized void release(Block block) {
+    block.users--;
+    if (block.isEvicted && block.users == 0) {
+      block.recycle();
+    }
+  }
+
+  // failures to fetch are forgotten, so the next tile in the block tries again - unless the block just doesn't exist
+  private synchronized void onFailed(Block block, Throwable cause) {
+    if (!(cause instanceof FileNotFoundException) && mBlocks.get(block.key) == block) {
+      mBlocks.remove(block.key);
+      block.isEvicted = true;
+    }
+  }
+
+  private void trimToSize() {
+    Iterator<Block> iterator = mBlocks.values().iterator();
+    while (mBlocks.size() > MAXIMUM_OPEN_BLOCKS && iterator.hasNext()) {
+      Block block = iterator.next();
+      iterator.remove();
+      block.isEvicted = true;
+      if (block.users == 0) {
+        block.recycle();
+      }
+    }
+  }
+
+  /**
+   * Recycles every decoder that isn't in use; the rest are recycled when the last Tile using them is done.
+   */
+  synchronized void clear() {
+    for (Block block : mBlocks.values()) {
+      block.isEvicted = true;
+      if (block.users == 0) {
+        block.recycle();
+      }
+    }
+    mBlocks.clear();
+  }
+
+  private class Block {
+
+    final String key;
+    final FutureTask<BitmapRegionDecoder> task;
+    // guarded by MetaTileDecoder.this
+    int users;
+    boolean isEvicted;
+
+    Block(String key, Callable<BitmapRegionDecoder> callable) {
+      this.key = key;
+      task = new FutureTask<>(callable);
+    }
+
+    // the first caller fetches and opens the block on its own thread, the rest wait for it
+    BitmapRegionDecoder get() throws Exception {
+      task.run();
+      try {
+        return task.get();
+      } catch (ExecutionException e) {
+        onFailed(this, e.getCause());
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+
+    void recycle() {
+      if (task.isDone()) {
+        try {
+          task.get().recycle();
+        } catch (Exception e) {
+          // no op, it never opened
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,150 @@
+package com.github.moagrius.tileview;
+
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers source tiles that don't exist (e.g., FileNotFoundException, or an HTTP 404), so we don't keep asking for them.
+ *
+ * Entries are kept per tile set - a detail level's data (e.g., its path pattern or URL template), by its string form - so
+ * a tile missing from one tile set (or TileView) doesn't hide the same coordinates in another.
+ *
+ * Entries last for the session, and can optionally be persisted between sessions.  If the tile set changes, call clear.
+ */
+public class MissingTileCache {
+
+  // before entries were kept per tile set, they were all in "tileview-missing"
+  private static final String FILE_NAME = "tileview-missing-tiles";
+  private static final String LEGACY_FILE_NAME = "tileview-missing";
+  private static final String THREAD_NAME = "tileview-missing-read";
+  private static final int IO_BUFFER_SIZE = 8 * 1024;
+
+  private final ConcurrentHashMap<String, Set<Long>> mKeys = new ConcurrentHashMap<>();
+  private final File mFile;
+  private final File mLegacyFile;
+
+  public MissingTileCache(Context context) {
+    mFile = new File(context.getCacheDir(), FILE_NAME);
+    mLegacyFile = new File(context.getCacheDir(), LEGACY_FILE_NAME);
+  }
+
+  // a TilePathTemplate's string form is its pattern, so it's the same tile set as the pattern itself
+  // by contents - an array's own toString is its identity, which is different every run
+  private static String getNamespace(Detail detail) {
+    Object data = detail.getData();
+    if (data instanceof Object[]) {
+      return Arrays.deepToString((Object[]) data);
+    }
+    return String.valueOf(data);
+  }
+
+  private Set<Long> getKeys(String namespace) {
+    Set<Long> keys = mKeys.get(namespace);
+    if (keys == null) {
+      keys = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+      Set<Long> existing = mKeys.putIfAbsent(namespace, keys);
+      if (existing != null) {
+        keys = existing;
+      }
+    }
+    return keys;
+  }
+
+  // zoom gets the top 8 bits, column and row get 28 each
+  private static long getKey(int zoom, int column, int row) {
+    return ((long) zoom << 56) | ((long) (column & 0xFFFFFFF) << 28) | (row & 0xFFFFFFF);
+  }
+
+  public boolean contains(Detail detail, int column, int row) {
+    if (mKeys.isEmpty()) {
+      return false;
+    }
+    Set<Long> keys = mKeys.get(getNamespace(detail));
+    return keys != null && keys.contains(getKey(detail.getZoom(), column, row));
+  }
+
+  public void put(Detail detail, int column, int row) {
+    getKeys(getNamespace(detail)).add(getKey(detail.getZoom(), column, row));
+  }
+
+  public void clear() {
+    mKeys.clear();
+    mFile.delete();
+  }
+
+  public void read() {
+    // its entries can't be attributed to a tile set
+    mLegacyFile.delete();
+    if (!mFile.exists()) {
+      return;
+    }
+    DataInputStream inputStream = null;
+    try {
+      inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile), IO_BUFFER_SIZE));
+      // each tile set is its namespace, a count, then that many keys
+      while (true) {
+        Set<Long> keys = getKeys(inputStream.readUTF());
+        for (int count = inputStream.readInt(); count > 0; count--) {
+          keys.add(inputStream.readLong());
+        }
+      }
+    } catch (EOFException e) {
+      // done
+    } catch (IOException e) {
+      // no op
+    } finally {
+      try {
+        if (inputStream != null) {
+          inputStream.close();
+        }
+      } catch (IOException e) {
+        // no op
+      }
+    }
+  }
+
+  public void readAsync() {
+    new Thread(this::read, THREAD_NAME).start();
+  }
+
+  public void write() {
+    DataOutputStream outputStream = null;
+    try {
+      outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile), IO_BUFFER_SIZE));
+      for (Map.Entry<String, Set<Long>> entry : mKeys.entrySet()) {
+        // a snapshot, so the count matches what's written even if tiles are still being found missing
+        Long[] keys = entry.getValue().toArray(new Long[0]);
+        outputStream.writeUTF(entry.getKey());
+        outputStream.writeInt(keys.length);
+        for (Long key : keys) {
+          outputStream.writeLong(key);
+        }
+      }
+    } catch (IOException e) {
+      mFile.delete();
+    } finally {
+      try {
+        if (outputStream != null) {
+          outputStream.close();
+        }
+      } catch (IOException e) {
+        // no op
+      }
+    }
+  }
+
+}
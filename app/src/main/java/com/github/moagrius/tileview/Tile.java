@@ -7,15 +7,21 @@ import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.os.Process;
 
+import com.github.moagrius.tileview.io.BatchStreamProvider;
+import com.github.moagrius.tileview.io.CacheMetadata;
+import com.github.moagrius.tileview.io.RevalidatingStreamProvider;
 import com.github.moagrius.tileview.io.StreamProvider;
+import com.github.moagrius.tileview.io.TileRenderer;
 
+import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.concurrent.ThreadPoolExecutor;
 
 public class Tile implements Runnable {
 
   enum State {
-    IDLE, DECODING, DECODED
+    // FAILED is a decode that threw (e.g., a timeout) - it's retried when the tile is next shown
+    IDLE, DECODING, DECODED, FAILED
   }
 
   // variable (settable)
@@ -27,6 +33,14 @@ public class Tile implements Runnable {
   // variable (computed)
   private volatile State mState = State.IDLE;
   private Bitmap mBitmap;
+  // with a TileAtlas, where the bitmap was copied to (mBitmap is null)
+  private TileAtlas.Slot mSlot;
+  // decoded tiles aren't drawn until the UI thread commits them (see TileView.commitDecodedTiles) - ui thread only
+  private boolean mIsCommitted;
+  // resident tiles (see TileView.Builder.setShouldKeepCoarsestDetail) are decoded once and never destroyed - ui thread only
+  private boolean mIsResident;
+  // how long the last stream fetched stays fresh, when the provider says (see RevalidatingStreamProvider)
+  private CacheMetadata mCacheMetadata;
 
   // lazy
   private String mCacheKey;
@@ -42,10 +56,28 @@ public class Tile implements Runnable {
   private final Listener mListener;
   private final StreamProvider mStreamProvider;
   private final TileView.BitmapCache mMemoryCache;
-  private final TileView.BitmapCache mDiskCache;
+  private final DiskCache mDiskCache;
   private final TileView.BitmapPool mBitmapPool;
   private final TileView.DiskCachePolicy mDiskCachePolicy;
+  private final MissingTileCache mMissingTileCache;
+  private final TileRevalidator mRevalidator;
+  private final MetaTileDecoder mMetaTileDecoder;
+  private final TileRenderer mTileRenderer;
+  private final TileAtlas mTileAtlas;
   private final ThreadPoolExecutor mThreadPoolExecutor;
+  // equal only to this tile - tiles are equal by position, so ThreadPoolExecutor.remove(this) could take another tile at
+  // the same position (e.g., a resident tile) out of the queue, and a queue removes the element its argument equals
+  private final Object mQueueEntry = new Object() {
+    @Override
+    public boolean equals(Object obj) {
+      return obj == Tile.this;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(Tile.this);
+    }
+  };
   
   public Tile(
       int size,
@@ -55,9 +87,14 @@ public class Tile implements Runnable {
       ThreadPoolExecutor threadPoolExecutor,
       StreamProvider streamProvider,
       TileView.BitmapCache memoryCache,
-      TileView.BitmapCache diskCache,
+      DiskCache diskCache,
       TileView.BitmapPool bitmapPool,
-      TileView.DiskCachePolicy diskCachePolicy
+      TileView.DiskCachePolicy diskCachePolicy,
+      MissingTileCache missingTileCache,
+      TileRevalidator revalidator,
+      MetaTileDecoder metaTileDecoder,
+      TileRenderer tileRenderer,
+      TileAtlas tileAtlas
   ) {
     mSize = size;
     mDrawingOptions.inPreferredConfig = bitmapConfig;
@@ -69,12 +106,38 @@ public class Tile implements Runnable {
     mDiskCache = diskCache;
     mBitmapPool = bitmapPool;
     mDiskCachePolicy = diskCachePolicy;
+    mMissingTileCache = missingTileCache;
+    mRevalidator = revalidator;
+    mMetaTileDecoder = metaTileDecoder;
+    mTileRenderer = tileRenderer;
+    mTileAtlas = tileAtlas;
   }
 
   public State getState() {
     return mState;
   }
 
+  /**
+   * @return True if the tile is decoded and has been admitted to the drawn tiles.
+   */
+  public boolean isCommitted() {
+    return mIsCommitted && mState == State.DECODED;
+  }
+
+  void commit() {
+    if (mState == State.DECODED) {
+      mIsCommitted = true;
+    }
+  }
+
+  boolean isResident() {
+    return mIsResident;
+  }
+
+  void setResident(boolean isResident) {
+    mIsResident = isResident;
+  }
+
   public int getRow() {
     return mRow;
   }
@@ -91,6 +154,10 @@ public class Tile implements Runnable {
     mColumn = column;
   }
 
+  public int getImageSample() {
+    return mImageSample;
+  }
+
   public void setImageSample(int imageSample) {
     mImageSample = imageSample;
     mDrawingOptions.inSampleSize = mImageSample;
@@ -108,8 +175,22 @@ public class Tile implements Runnable {
     return mDestinationRect;
   }
 
+  /**
+   * @return The bitmap to draw - with a TileAtlas, the atlas page, and getSourceRect is the part of it to draw.
+   */
   public Bitmap getBitmap() {
-    return mBitmap;
+    return mSlot != null ? mTileAtlas.getPage(mSlot) : mBitmap;
+  }
+
+  TileAtlas.Slot getSlot() {
+    return mSlot;
+  }
+
+  /**
+   * @return The part of getBitmap to draw, or null for all of it.
+   */
+  public Rect getSourceRect() {
+    return mSlot != null ? mSlot.getSource() : null;
   }
 
   public BitmapFactory.Options getDrawingOptions() {
@@ -120,7 +201,8 @@ public class Tile implements Runnable {
     return mMeasureOptions;
   }
 
-  private void updateDestinationRect() {
+  // called once column, row, detail and sample are set - the rect is needed before the tile decodes, e.g., for fallbacks
+  void updateDestinationRect() {
     int cellSize = mSize * mDetail.getSample();
     int patchSize = cellSize * mImageSample;
     mDestinationRect.left = mColumn * cellSize;
@@ -129,13 +211,178 @@ public class Tile implements Runnable {
     mDestinationRect.bottom = mDestinationRect.top + patchSize;
   }
 
-  private String getCacheKey() {
+  String getCacheKey() {
     if (mCacheKey == null) {
-      mCacheKey = String.valueOf(mColumn) + String.valueOf(mRow) + String.valueOf(mImageSample) + String.valueOf(mDetail.getZoom());
+      mCacheKey = getCacheKey(mColumn, mRow, mImageSample, mDetail.getZoom());
     }
     return mCacheKey;
   }
 
+  // delimited so keys can't collide (1, 23 vs 12, 3), and so the disk cache can read sample and zoom back out
+  static String getCacheKey(int column, int row, int imageSample, int zoom) {
+    return column + "_" + row + "_" + imageSample + "_" + zoom;
+  }
+
+  // returns null if the source tile doesn't exist - either it's outside the detail's grid, or we've already been told
+  // it's not there (FileNotFoundException, which is also what HttpURLConnection throws for a 404)
+  private InputStream getStream(int column, int row, Context context) throws Exception {
+    if (!mDetail.contains(column, row) || mMissingTileCache.contains(mDetail, column, row)) {
+      return null;
+    }
+    try {
+      if (mRevalidator != null) {
+        RevalidatingStreamProvider.Response response = mRevalidator.getStreamProvider().getStream(column, row, context, mDetail.getData(), null);
+        mCacheMetadata = response.getMetadata();
+        return response.getStream();
+      }
+      return mStreamProvider.getStream(column, row, context, mDetail.getData());
+    } catch (FileNotFoundException e) {
+      mMissingTileCache.put(mDetail, column, row);
+      return null;
+    }
+  }
+
+  // same as getStream, for tiles read out of meta-tiles
+  private Bitmap getMetaTileRegion(int column, int row, Context context) throws Exception {
+    if (!mDetail.contains(column, row) || mMissingTileCache.contains(mDetail, column, row)) {
+      return null;
+    }
+    try {
+      return mMetaTileDecoder.decode(mDetail, column, row, context, mDrawingOptions);
+    } catch (FileNotFoundException e) {
+      mMissingTileCache.put(mDetail, column, row);
+      return null;
+    }
+  }
+
+  private Bitmap decodeFromStream(Context context) throws Exception {
+    InputStream stream = getStream(mColumn, mRow, context);
+    if (stream == null) {
+      return null;
+    }
+    // measure it and populate measure options to pass to cache
+    BitmapFactory.decodeStream(stream, null, mMeasureOptions);
+    // if we made it this far, the exact bitmap wasn't in memory, but let's grab the least recently used bitmap from the cache and draw over it
+    mDrawingOptions.inBitmap = mBitmapPool.getBitmapForReuse(this);
+    // the measurement moved the stream's position - it must be reset to use the same stream to draw pixels
+    stream.reset();
+    return BitmapFactory.decodeStream(stream, null, mDrawingOptions);
+  }
+
+  private Bitmap decodeFromMetaTile(Context context) throws Exception {
+    // the region is a full tile, no need to measure
+    mMeasureOptions.outWidth = mSize;
+    mMeasureOptions.outHeight = mSize;
+    Bitmap reusable = mBitmapPool.getBitmapForReuse(this);
+    mDrawingOptions.inBitmap = reusable;
+    Bitmap bitmap = null;
+    try {
+      bitmap = getMetaTileRegion(mColumn, mRow, context);
+      return bitmap;
+    } finally {
+      // no tile (or it threw) - the next tile can have it
+      if (reusable != null && bitmap != reusable) {
+        mDrawingOptions.inBitmap = null;
+        mBitmapPool.recycle(reusable);
+      }
+    }
+  }
+
+  // a full size bitmap to draw on - from the pool if there's one we can use
+  private Bitmap getBlankBitmap() {
+    // we need to fake the measurements
+    mMeasureOptions.outWidth = mSize;
+    mMeasureOptions.outHeight = mSize;
+    Bitmap bitmap = mBitmapPool.getBitmapForReuse(this);
+    if (bitmap == null) {
+      bitmap = Bitmap.createBitmap(mSize, mSize, mDrawingOptions.inPreferredConfig);
+    }
+    return bitmap;
+  }
+
+  // procedural tiles are drawn straight into a pooled bitmap, no encoding or decoding
+  private Bitmap render(Context context) throws Exception {
+    if (!mDetail.contains(mColumn, mRow)) {
+      return null;
+    }
+    Bitmap bitmap = getBlankBitmap();
+    Canvas canvas = new Canvas(bitmap);
+    if (mTileRenderer.renderTile(mColumn, mRow, canvas, context, mDetail.getData())) {
+      return bitmap;
+    }
+    // nothing to draw, so the next tile can have it
+    mBitmapPool.recycle(bitmap);
+    return null;
+  }
+
+  // renders one piece of a patch, scaled down to its place in the patch
+  private void renderPiece(Canvas canvas, int offsetColumn, int offsetRow, Context context) throws Exception {
+    int column = mColumn + offsetColumn;
+    int row = mRow + offsetRow;
+    if (!mDetail.contains(column, row)) {
+      return;
+    }
+    float scale = 1f / mImageSample;
+    canvas.save();
+    canvas.scale(scale, scale);
+    canvas.translate(offsetColumn * mSize, offsetRow * mSize);
+    canvas.clipRect(0, 0, mSize, mSize);
+    mTileRenderer.renderTile(column, row, canvas, context, mDetail.getData());
+    canvas.restore();
+  }
+
+  // draws one piece of a patch, at its offset (in pieces) from the patch origin
+  private void drawPiece(Canvas canvas, int offsetColumn, int offsetRow, InputStream stream) {
+    drawPiece(canvas, offsetColumn, offsetRow, BitmapFactory.decodeStream(stream, null, mDrawingOptions));
+  }
+
+  private void drawPiece(Canvas canvas, int offsetColumn, int offsetRow, Bitmap piece) {
+    if (piece != null) {
+      int size = mSize / mImageSample;
+      canvas.drawBitmap(piece, offsetColumn * size, offsetRow * size, null);
+    }
+  }
+
+  // the same pieces getStream would fetch one at a time - pieces outside the grid or known to be missing are skipped, and
+  // pieces the provider didn't have are remembered as missing
+  private void drawBatch(Canvas canvas, Context context) throws Exception {
+    boolean[] isWanted = new boolean[mImageSample * mImageSample];
+    boolean hasWanted = false;
+    for (int i = 0; i < mImageSample; i++) {
+      for (int j = 0; j < mImageSample; j++) {
+        int column = mColumn + j;
+        int row = mRow + i;
+        isWanted[i * mImageSample + j] = mDetail.contains(column, row) && !mMissingTileCache.contains(mDetail, column, row);
+        hasWanted |= isWanted[i * mImageSample + j];
+      }
+    }
+    if (!hasWanted) {
+      return;
+    }
+    BatchStreamProvider batchStreamProvider = (BatchStreamProvider) mStreamProvider;
+    batchStreamProvider.getStreams(mColumn, mRow, mImageSample, context, mDetail.getData(), (column, row, stream) -> {
+      int offsetColumn = column - mColumn;
+      int offsetRow = row - mRow;
+      if (offsetColumn < 0 || offsetColumn >= mImageSample || offsetRow < 0 || offsetRow >= mImageSample) {
+        return;
+      }
+      int index = offsetRow * mImageSample + offsetColumn;
+      if (mState == State.DECODING && isWanted[index]) {
+        isWanted[index] = false;
+        drawPiece(canvas, offsetColumn, offsetRow, stream);
+      }
+    });
+    // anything still wanted wasn't there - unless we were destroyed partway, in which case we just don't know
+    if (mState != State.DECODING) {
+      return;
+    }
+    for (int i = 0; i < isWanted.length; i++) {
+      if (isWanted[i]) {
+        mMissingTileCache.put(mDetail, mColumn + i % mImageSample, mRow + i / mImageSample);
+      }
+    }
+  }
+
   // if destroyed by the time this is called, make sure bitmap stays null
   // otherwise, set bitmap, update state, send to memory cache and notify drawing view
   private void setDecodedBitmap(Bitmap bitmap) {
@@ -143,9 +390,48 @@ public class Tile implements Runnable {
       mBitmap = null;
       return;
     }
+    // with an atlas, the bitmap is copied into a slot, and this thread can decode the next tile into it
+    if (mTileAtlas != null && bitmap != null) {
+      TileAtlas.Slot slot = mTileAtlas.store(getCacheKey(), bitmap);
+      if (slot != null) {
+        mTileAtlas.recycle(bitmap);
+        setDecodedSlot(slot);
+        return;
+      }
+    }
     mBitmap = bitmap;
     mState = State.DECODED;
-    mDrawingView.setDirty();
+    mListener.onTileDecoded(this);
+  }
+
+  // the slot is held for this tile, so it has to be released if we were destroyed in the meantime
+  private void setDecodedSlot(TileAtlas.Slot slot) {
+    if (mState != State.DECODING) {
+      mTileAtlas.release(slot);
+      return;
+    }
+    mSlot = slot;
+    mState = State.DECODED;
+    mListener.onTileDecoded(this);
+  }
+
+  // swaps in a newer version of the same tile, e.g., when revalidation found it changed at the source
+  void replaceBitmap(Bitmap bitmap) {
+    if (mState != State.DECODED) {
+      return;
+    }
+    if (mSlot != null) {
+      mTileAtlas.update(mSlot, bitmap);
+    } else {
+      mBitmap = bitmap;
+    }
+  }
+
+  // only tiles we'd cache to disk as-is (not patches) have metadata to check
+  private void revalidate() {
+    if (mRevalidator != null && mImageSample == 1) {
+      mRevalidator.revalidate(getCacheKey(), mColumn, mRow, mDetail.getData());
+    }
   }
 
   protected void decode() throws Exception {
@@ -156,12 +442,20 @@ public class Tile implements Runnable {
     // this line is critical on some devices - we're doing so much work off thread that anything higher priority causes jank
     Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
     // putting a thread.sleep of even 100ms here shows that maybe we're doing work off screen that we should not be doing
-    updateDestinationRect();
     String key = getCacheKey();
+    if (mTileAtlas != null) {
+      TileAtlas.Slot slot = mTileAtlas.acquire(key);
+      if (slot != null) {
+        setDecodedSlot(slot);
+        revalidate();
+        return;
+      }
+    }
     Bitmap cached = mMemoryCache.get(key);
     if (cached != null) {
       mMemoryCache.remove(key);
       setDecodedBitmap(cached);
+      revalidate();
       return;
     }
     Context context = mDrawingView.getContext();
@@ -169,62 +463,93 @@ public class Tile implements Runnable {
     if (mImageSample == 1) {
       // if we cache everything to disk (usually because we're fetching from remote sources)
       // check the disk cache now and return out if we can
-      if (mDiskCachePolicy == TileView.DiskCachePolicy.CACHE_ALL) {
+      if (mDiskCachePolicy == TileView.DiskCachePolicy.CACHE_ALL && mDiskCache != null) {
         cached = mDiskCache.get(key);
         if (cached != null) {
+          // draw what we have now, and check whether it's still current in the background
           setDecodedBitmap(cached);
+          revalidate();
           return;
         }
       }
       // no strong disk cache policy, go ahead and decode
-      InputStream stream = mStreamProvider.getStream(mColumn, mRow, context, mDetail.getData());
-      if (stream != null) {
-        // measure it and populate measure options to pass to cache
-        BitmapFactory.decodeStream(stream, null, mMeasureOptions);
-        // if we made it this far, the exact bitmap wasn't in memory, but let's grab the least recently used bitmap from the cache and draw over it
-        mDrawingOptions.inBitmap = mBitmapPool.getBitmapForReuse(this);
-        // the measurement moved the stream's position - it must be reset to use the same stream to draw pixels
-        stream.reset();
-        Bitmap bitmap = BitmapFactory.decodeStream(stream, null, mDrawingOptions);
-        setDecodedBitmap(bitmap);
-        if (mDiskCachePolicy == TileView.DiskCachePolicy.CACHE_ALL) {
-          mDiskCache.put(key, bitmap);
+      Bitmap bitmap;
+      if (mTileRenderer != null) {
+        bitmap = render(context);
+      } else if (mMetaTileDecoder != null) {
+        bitmap = decodeFromMetaTile(context);
+      } else {
+        bitmap = decodeFromStream(context);
+      }
+      // nothing to draw (e.g., the tile is missing), but we're done - don't leave it stuck decoding
+      if (bitmap == null) {
+        setDecodedBitmap(null);
+        return;
+      }
+      setDecodedBitmap(bitmap);
+      if (mDiskCachePolicy == TileView.DiskCachePolicy.CACHE_ALL && mDiskCache != null) {
+        mDiskCache.put(key, bitmap, mCacheMetadata);
+        if (mRevalidator != null && mDiskCache.isOpen()) {
+          mRevalidator.onCached(key, mCacheMetadata);
         }
       }
     // we don't have a defined zoom level, so we need to use image sub-sampling and disk cache even if reading files locally
     } else {
-      cached = mDiskCache.get(key);
-      if (cached != null) {
-        setDecodedBitmap(cached);
-        return;
+      // there's no disk cache if the policy is CACHE_NONE or the size is 0
+      if (mDiskCache != null) {
+        cached = mDiskCache.get(key);
+        if (cached != null) {
+          setDecodedBitmap(cached);
+          return;
+        }
       }
       // if we're patching, we need a base bitmap to draw on
       // let's try to use one from the cache if we have one
-      // we need to fake the measurements
-      mMeasureOptions.outWidth = mSize;
-      mMeasureOptions.outHeight = mSize;
-      Bitmap bitmap = mBitmapPool.getBitmapForReuse(this);
-      if (bitmap == null) {
-        bitmap = Bitmap.createBitmap(mSize, mSize, mDrawingOptions.inPreferredConfig);
-      }
+      Bitmap bitmap = getBlankBitmap();
       Canvas canvas = new Canvas(bitmap);
-      int size = mSize / mImageSample;
-      for (int i = 0; i < mImageSample; i++) {
-        for (int j = 0; j < mImageSample; j++) {
-          // if we got destroyed while decoding, drop out
-          if (mState != State.DECODING) {
-            return;
+      if (mTileRenderer != null) {
+        for (int i = 0; i < mImageSample; i++) {
+          for (int j = 0; j < mImageSample; j++) {
+            if (mState != State.DECODING) {
+              return;
+            }
+            renderPiece(canvas, j, i, context);
           }
-          InputStream stream = mStreamProvider.getStream(mColumn + j, mRow + i, context, mDetail.getData());
-          if (stream != null) {
-            Bitmap piece = BitmapFactory.decodeStream(stream, null, mDrawingOptions);
-            canvas.drawBitmap(piece, j * size, i * size, null);
+        }
+      // if the provider can get all the pieces at once (e.g., a single database query), let it
+      } else if (mMetaTileDecoder != null) {
+        for (int i = 0; i < mImageSample; i++) {
+          for (int j = 0; j < mImageSample; j++) {
+            if (mState != State.DECODING) {
+              return;
+            }
+            // pieces are decoded at the patch's sample size, straight out of the meta-tile
+            drawPiece(canvas, j, i, getMetaTileRegion(mColumn + j, mRow + i, context));
           }
         }
+      } else if (mStreamProvider instanceof BatchStreamProvider) {
+        drawBatch(canvas, context);
+      } else {
+        for (int i = 0; i < mImageSample; i++) {
+          for (int j = 0; j < mImageSample; j++) {
+            // if we got destroyed while decoding, drop out
+            if (mState != State.DECODING) {
+              return;
+            }
+            // at the edges, some or all of a patch's pieces may be missing - skip those and draw the rest
+            InputStream stream = getStream(mColumn + j, mRow + i, context);
+            if (stream != null) {
+              drawPiece(canvas, j, i, stream);
+            }
+          }
+        }
+      }
+      if (mState != State.DECODING) {
+        return;
       }
       setDecodedBitmap(bitmap);
       // we need to cache patches to disk even if local
-      if (mDiskCachePolicy != TileView.DiskCachePolicy.CACHE_NONE) {
+      if (mDiskCachePolicy != TileView.DiskCachePolicy.CACHE_NONE && mDiskCache != null) {
         mDiskCache.put(key, bitmap);
       }
     }
@@ -232,16 +557,31 @@ public class Tile implements Runnable {
 
   // we use this signature to call from the Executor, so it can remove tiles via iterator
   public void destroy(boolean removeFromQueue) {
+    if (mIsResident) {
+      return;
+    }
     if (mState == State.IDLE) {
+      // queued but not started - take it out of the queue so it never runs, and it can go back to the pool
+      if (removeFromQueue && mThreadPoolExecutor.getQueue().remove(mQueueEntry)) {
+        mCacheKey = null;
+        mListener.onTileDestroyed(this);
+      }
       return;
     }
     if (removeFromQueue) {
-      mThreadPoolExecutor.remove(this);
+      mThreadPoolExecutor.getQueue().remove(mQueueEntry);
     }
     if (mState == State.DECODED) {
-      mMemoryCache.put(getCacheKey(), mBitmap);
+      // a released slot stays in the atlas, like a bitmap put in the memory cache
+      if (mSlot != null) {
+        mTileAtlas.release(mSlot);
+      } else {
+        mMemoryCache.put(getCacheKey(), mBitmap);
+      }
     }
     mBitmap = null;
+    mSlot = null;
+    mIsCommitted = false;
     mDrawingOptions.inBitmap = null;
     // since tiles are pooled and reused, make sure to reset the cache key or you'll render the wrong tile from cache
     mCacheKey = null;
@@ -257,12 +597,21 @@ public class Tile implements Runnable {
     try {
       decode();
     } catch (Exception e) {
+      // rather than leave it decoding forever - unless it was destroyed in the meantime
+      if (mState == State.DECODING) {
+        mState = State.FAILED;
+      }
       mListener.onTileDecodeError(this, e);
     }
   }
 
   public void draw(Canvas canvas) {
-    if (mState == State.DECODED && mBitmap != null) {
+    if (!isCommitted()) {
+      return;
+    }
+    if (mSlot != null) {
+      canvas.drawBitmap(mTileAtlas.getPage(mSlot), mSlot.getSource(), mDestinationRect, null);
+    } else if (mBitmap != null) {
       canvas.drawBitmap(mBitmap, null, mDestinationRect, null);
     }
   }
@@ -293,11 +642,12 @@ public class Tile implements Runnable {
   }
 
   public interface DrawingView {
-    void setDirty();
     Context getContext();
   }
 
   public interface Listener {
+    // called from the decoding thread
+    void onTileDecoded(Tile tile);
     void onTileDestroyed(Tile tile);
     void onTileDecodeError(Tile tile, Exception e);
   }
@@ -0,0 +1,251 @@
+package com.github.moagrius.tileview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Tile storage in a few large bitmaps (pages), each divided into fixed, tile-sized slots, instead of a bitmap per tile.
+ *
+ * Decoded tiles are copied into a slot and drawn from it with a source rect.  Slots stay keyed by the tile they hold after
+ * the tile is destroyed, so the atlas doubles as the memory cache: showing the same tile again is a hit, and when a slot
+ * is needed, the least recently used slot that isn't showing is taken.  All memory is allocated up front, so nothing is
+ * allocated (or fragmented) while tiles come and go.
+ *
+ * The bitmaps tiles are decoded into before they're copied are kept, one per worker thread, and handed back out as the
+ * BitmapPool's reusable bitmap, so decoding allocates nothing either.
+ */
+public class TileAtlas implements TileView.BitmapPool {
+
+  public static final int PAGE_SIZE = 2048;
+
+  private final int mTileSize;
+  private final Bitmap.Config mConfig;
+  private final Bitmap[] mPages;
+  private final int mSlotCount;
+  private final Canvas[] mCanvases;
+  // copies pixels as-is, rather than blending them over whatever the slot had before
+  private final Paint mCopyPaint = new Paint();
+
+  // guarded by this
+  private final HashMap<String, Slot> mSlotsByKey = new HashMap<>();
+  // slots that hold a tile but aren't showing, least recently used first
+  private final LinkedHashSet<Slot> mReleasedSlots = new LinkedHashSet<>();
+  private final ArrayDeque<Slot> mEmptySlots = new ArrayDeque<>();
+
+  private final ThreadLocal<Bitmap> mScratchBitmap = new ThreadLocal<>();
+
+  /**
+   * @param memory The most memory, in bytes, to use for pages.  At least one page is always allocated.
+   */
+  public TileAtlas(int tileSize, Bitmap.Config config, long memory) {
+    mTileSize = tileSize;
+    mConfig = config;
+    int pageSize = Math.max(tileSize, PAGE_SIZE / tileSize * tileSize);
+    int slotsPerSide = pageSize / tileSize;
+    long pageBytes = (long) pageSize * pageSize * getBytesPerPixel(config);
+    int pageCount = (int) Math.max(1, memory / pageBytes);
+    mPages = new Bitmap[pageCount];
+    mSlotCount = pageCount * slotsPerSide * slotsPerSide;
+    mCanvases = new Canvas[pageCount];
+    for (int i = 0; i < pageCount; i++) {
+      mPages[i] = Bitmap.createBitmap(pageSize, pageSize, config);
+      mCanvases[i] = new Canvas(mPages[i]);
+      for (int row = 0; row < slotsPerSide; row++) {
+        for (int column = 0; column < slotsPerSide; column++) {
+          mEmptySlots.add(new Slot(i, column * tileSize, row * tileSize));
+        }
+      }
+    }
+    mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+  }
+
+  /**
+   * @return The slot holding key, held for the caller until released, or null if it isn't in the atlas.
+   */
+  public synchronized Slot acquire(String key) {
+    Slot slot = mSlotsByKey.get(key);
+    if (slot == null) {
+      return null;
+    }
+    if (slot.mHolds == 0) {
+      mReleasedSlots.remove(slot);
+    }
+    slot.mHolds++;
+    return slot;
+  }
+
+  /**
+   * Holds a slot that's already held (e.g., by a tile) once more, until it's released again.
+   */
+  public synchronized void hold(Slot slot) {
+    if (slot.mHolds == 0) {
+      mReleasedSlots.remove(slot);
+    }
+    slot.mHolds++;
+  }
+
+  /**
+   * Copies bitmap into a slot for key, held for the caller until released.
+   *
+   * @return The slot, or null if every slot is showing (in which case the caller should just draw the bitmap).
+   */
+  public synchronized Slot store(String key, Bitmap bitmap) {
+    Slot slot = mSlotsByKey.get(key);
+    if (slot != null) {
+      if (slot.mHolds == 0) {
+        mReleasedSlots.remove(slot);
+      }
+    } else {
+      slot = takeSlot();
+      if (slot == null) {
+        return null;
+      }
+      slot.mKey = key;
+      mSlotsByKey.put(key, slot);
+    }
+    slot.mHolds++;
+    copy(slot, bitmap);
+    return slot;
+  }
+
+  /**
+   * Replaces what's in a slot the caller holds, e.g., when revalidation found the tile changed at the source.
+   */
+  public synchronized void update(Slot slot, Bitmap bitmap) {
+    copy(slot, bitmap);
+  }
+
+  /**
+   * The slot's tile stays in the atlas, and can be acquired again, until the slot is needed for another tile.
+   */
+  public synchronized void release(Slot slot) {
+    slot.mHolds--;
+    if (slot.mHolds == 0) {
+      mReleasedSlots.add(slot);
+    }
+  }
+
+  /**
+   * Forgets a tile (it's outdated) - if it's showing, it keeps showing until it's released.
+   */
+  public synchronized void remove(String key) {
+    Slot slot = mSlotsByKey.remove(key);
+    if (slot == null) {
+      return;
+    }
+    slot.mKey = null;
+    if (slot.mHolds == 0) {
+      mReleasedSlots.remove(slot);
+      mEmptySlots.add(slot);
+    }
+  }
+
+  public int getSlotCount() {
+    return mSlotCount;
+  }
+
+  public Bitmap getPage(Slot slot) {
+    return mPages[slot.mPage];
+  }
+
+  /**
+   * Hands a bitmap that's been copied into a slot (or wasn't used) back to this thread, to decode the next tile into.
+   */
+  @Override
+  public void recycle(Bitmap bitmap) {
+    if (bitmap.isMutable() && bitmap.getConfig() == mConfig && bitmap.getWidth() == mTileSize && bitmap.getHeight() == mTileSize) {
+      mScratchBitmap.set(bitmap);
+    }
+  }
+
+  // Implementing TileView.BitmapPool - the scratch bitmap is handed out once, until it's recycled again
+  @Override
+  public Bitmap getBitmapForReuse(Tile tile) {
+    Bitmap bitmap = mScratchBitmap.get();
+    if (bitmap == null) {
+      return null;
+    }
+    BitmapFactory.Options options = tile.getMeasureOptions();
+    int sample = Math.max(1, options.inSampleSize);
+    if (options.outWidth / sample != mTileSize || options.outHeight / sample != mTileSize) {
+      return null;
+    }
+    mScratchBitmap.set(null);
+    // it still has the last tile - edge tiles don't cover all of it
+    bitmap.eraseColor(Color.BLACK);
+    return bitmap;
+  }
+
+  private Slot takeSlot() {
+    Slot slot = mEmptySlots.poll();
+    if (slot != null) {
+      return slot;
+    }
+    Iterator<Slot> iterator = mReleasedSlots.iterator();
+    if (!iterator.hasNext()) {
+      return null;
+    }
+    slot = iterator.next();
+    iterator.remove();
+    if (slot.mKey != null) {
+      mSlotsByKey.remove(slot.mKey);
+    }
+    return slot;
+  }
+
+  // edge tiles may be smaller than a slot - the source rect is just the part that's filled
+  private void copy(Slot slot, Bitmap bitmap) {
+    int width = Math.min(bitmap.getWidth(), mTileSize);
+    int height = Math.min(bitmap.getHeight(), mTileSize);
+    slot.mSource.set(slot.mLeft, slot.mTop, slot.mLeft + width, slot.mTop + height);
+    mCanvases[slot.mPage].drawBitmap(bitmap, null, slot.mSource, mCopyPaint);
+  }
+
+  static int getBytesPerPixel(Bitmap.Config config) {
+    switch (config) {
+      case ARGB_8888:
+        return 4;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+    }
+    return 1;
+  }
+
+  public static class Slot {
+
+    private final int mPage;
+    private final int mLeft;
+    private final int mTop;
+    private final Rect mSource = new Rect();
+    // guarded by the atlas
+    private String mKey;
+    private int mHolds;
+
+    private Slot(int page, int left, int top) {
+      mPage = page;
+      mLeft = left;
+      mTop = top;
+    }
+
+    /**
+     * @return Where the tile is in its page.
+     */
+    public Rect getSource() {
+      return mSource;
+    }
+
+  }
+
+}
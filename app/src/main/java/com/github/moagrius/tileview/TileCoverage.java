@@ -0,0 +1,94 @@
+package com.github.moagrius.tileview;
+
+/**
+ * Which cells of the tile window are filled with decoded tiles, as a bitset - one bit per cell, row by row, in the same
+ * order TileWindow indexes its tiles.
+ *
+ * Used to decide whether a tile left over from the previous zoom is still showing through anywhere: a rect is mapped to
+ * the cells it overlaps arithmetically, and those cells' bits are tested a word at a time.
+ */
+class TileCoverage {
+
+  private static final int ADDRESS_BITS_PER_WORD = 6;
+
+  private long[] mWords = new long[0];
+  private int mColumnStart;
+  private int mRowStart;
+  private int mColumns;
+  private int mRows;
+  private int mCellSize;
+
+  /**
+   * Empties the coverage, and sets the cells it's over.
+   *
+   * @param cellSize The size of a cell in unscaled pixels.
+   */
+  void reset(int columnStart, int rowStart, int columns, int rows, int cellSize) {
+    mColumnStart = columnStart;
+    mRowStart = rowStart;
+    mColumns = columns;
+    mRows = rows;
+    mCellSize = Math.max(1, cellSize);
+    int words = ((columns * rows) >> ADDRESS_BITS_PER_WORD) + 1;
+    if (words > mWords.length) {
+      mWords = new long[words];
+    } else {
+      for (int i = 0; i < words; i++) {
+        mWords[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * @param index The cell, as a TileWindow index.
+   */
+  void fill(int index) {
+    mWords[index >> ADDRESS_BITS_PER_WORD] |= 1L << index;
+  }
+
+  /**
+   * @return True if every cell the rect overlaps is filled.  Anything outside the window isn't.
+   */
+  boolean isFilled(int left, int top, int right, int bottom) {
+    if (right <= left || bottom <= top) {
+      return true;
+    }
+    int columnStart = left / mCellSize - mColumnStart;
+    int columnEnd = (right + mCellSize - 1) / mCellSize - mColumnStart;
+    int rowStart = top / mCellSize - mRowStart;
+    int rowEnd = (bottom + mCellSize - 1) / mCellSize - mRowStart;
+    if (left < 0 || top < 0 || columnStart < 0 || rowStart < 0 || columnEnd > mColumns || rowEnd > mRows) {
+      return false;
+    }
+    for (int row = rowStart; row < rowEnd; row++) {
+      int offset = row * mColumns;
+      if (!isSet(offset + columnStart, offset + columnEnd)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // true if bits [from, to) are all set
+  private boolean isSet(int from, int to) {
+    int fromWord = from >> ADDRESS_BITS_PER_WORD;
+    int toWord = (to - 1) >> ADDRESS_BITS_PER_WORD;
+    // shifts only use the low 6 bits, so these are the masks for from's and to's positions within their words
+    long firstMask = -1L << from;
+    long lastMask = -1L >>> -to;
+    if (fromWord == toWord) {
+      long mask = firstMask & lastMask;
+      return (mWords[fromWord] & mask) == mask;
+    }
+    if ((mWords[fromWord] & firstMask) != firstMask) {
+      return false;
+    }
+    for (int i = fromWord + 1; i < toWord; i++) {
+      if (mWords[i] != -1L) {
+        return false;
+      }
+    }
+    return (mWords[toWord] & lastMask) == lastMask;
+  }
+
+}
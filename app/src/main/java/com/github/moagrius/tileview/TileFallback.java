@@ -0,0 +1,241 @@
+package com.github.moagrius.tileview;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Finds something to draw in place of a tile that hasn't decoded yet, from tiles of other detail levels that are already
+ * in memory: the nearest coarser tile that contains it (drawn cropped and scaled up), or else every tile of the next
+ * finer level inside it (drawn scaled down).
+ *
+ * Optionally, every tile of the coarsest detail level is kept decoded (resident), so there's always a coarser tile.
+ *
+ * Results are kept in arrays reused between calls, so finding a fallback allocates nothing but cache keys.
+ *
+ * What's found is pinned - the slot or bitmap is kept from being taken for another tile until it's unpinned - since it's
+ * drawn later, on another thread (a surface's render thread, or a hardware accelerated view's display list).
+ */
+class TileFallback {
+
+  // more than this many finer tiles aren't worth drawing in place of one tile
+  private static final int MAXIMUM_DESCENDANTS = 16;
+
+  private final int mTileSize;
+  private final DetailList mDetailList;
+  private final TileView.BitmapCache mMemoryCache;
+  private final TileView.BitmapPool mBitmapPool;
+  private final TileAtlas mTileAtlas;
+
+  private Detail mResidentDetail;
+  private Tile[] mResidentTiles;
+
+  private int mCount;
+  private final Bitmap[] mBitmaps = new Bitmap[MAXIMUM_DESCENDANTS];
+  private final Rect[] mSources = new Rect[MAXIMUM_DESCENDANTS];
+  private final boolean[] mHasSources = new boolean[MAXIMUM_DESCENDANTS];
+  private final Rect[] mDestinations = new Rect[MAXIMUM_DESCENDANTS];
+  private final Object[] mPins = new Object[MAXIMUM_DESCENDANTS];
+
+  TileFallback(int tileSize, DetailList detailList, TileView.BitmapCache memoryCache, TileView.BitmapPool bitmapPool, TileAtlas tileAtlas) {
+    mTileSize = tileSize;
+    mDetailList = detailList;
+    mMemoryCache = memoryCache;
+    mBitmapPool = bitmapPool;
+    mTileAtlas = tileAtlas;
+    for (int i = 0; i < MAXIMUM_DESCENDANTS; i++) {
+      mSources[i] = new Rect();
+      mDestinations[i] = new Rect();
+    }
+  }
+
+  /**
+   * @param tiles Every tile of detail, row by row.
+   */
+  void setResidentTiles(Detail detail, Tile[] tiles) {
+    mResidentDetail = detail;
+    mResidentTiles = tiles;
+  }
+
+  /**
+   * @return How many bitmaps to draw in place of tile (0 if there's nothing) - see getBitmap, getSource, getDestination.
+   * The caller unpins each getPin when it's done drawing.
+   */
+  int find(Tile tile) {
+    clear();
+    if (findAncestor(tile) || findDescendants(tile)) {
+      return mCount;
+    }
+    // descendants found before one was missing
+    for (int i = 0; i < mCount; i++) {
+      unpin(mPins[i]);
+    }
+    clear();
+    return 0;
+  }
+
+  // don't hold on to bitmaps from the last call
+  private void clear() {
+    for (int i = 0; i < mCount; i++) {
+      mBitmaps[i] = null;
+      mPins[i] = null;
+    }
+    mCount = 0;
+  }
+
+  Bitmap getBitmap(int index) {
+    return mBitmaps[index];
+  }
+
+  /**
+   * @return The part of the bitmap to draw, or null for all of it.
+   */
+  Rect getSource(int index) {
+    return mHasSources[index] ? mSources[index] : null;
+  }
+
+  Rect getDestination(int index) {
+    return mDestinations[index];
+  }
+
+  Object getPin(int index) {
+    return mPins[index];
+  }
+
+  /**
+   * Pins what a decoded tile draws.
+   *
+   * @return What to pass to unpin.
+   */
+  Object pin(Tile tile) {
+    TileAtlas.Slot slot = tile.getSlot();
+    if (slot != null) {
+      mTileAtlas.hold(slot);
+      return slot;
+    }
+    Bitmap bitmap = tile.getBitmap();
+    mBitmapPool.pin(bitmap);
+    return bitmap;
+  }
+
+  void unpin(Object pin) {
+    if (pin instanceof TileAtlas.Slot) {
+      mTileAtlas.release((TileAtlas.Slot) pin);
+    } else {
+      mBitmapPool.unpin((Bitmap) pin);
+    }
+  }
+
+  private boolean findAncestor(Tile tile) {
+    int zoom = tile.getDetail().getZoom();
+    int sample = tile.getImageSample();
+    Rect destination = tile.getDrawingRect();
+    for (Detail detail = mDetailList.getCoarserThan(zoom); detail != null; detail = mDetailList.getCoarserThan(detail.getZoom())) {
+      int shift = detail.getZoom() - zoom;
+      // a patch may be bigger than one coarser tile - then a coarser level still might do
+      if (sample > 1 << shift) {
+        continue;
+      }
+      int column = tile.getColumn() >> shift;
+      int row = tile.getRow() >> shift;
+      if (!add(detail, column, row)) {
+        continue;
+      }
+      // crop to the part of the coarser tile under this one
+      int cellSize = mTileSize * detail.getSample();
+      int left = column * cellSize;
+      int top = row * cellSize;
+      Rect source = mSources[0];
+      int width = mHasSources[0] ? source.width() : mBitmaps[0].getWidth();
+      int height = mHasSources[0] ? source.height() : mBitmaps[0].getHeight();
+      int sourceLeft = mHasSources[0] ? source.left : 0;
+      int sourceTop = mHasSources[0] ? source.top : 0;
+      source.set(
+          sourceLeft + (int) ((long) (destination.left - left) * width / cellSize),
+          sourceTop + (int) ((long) (destination.top - top) * height / cellSize),
+          sourceLeft + (int) ((long) (destination.right - left) * width / cellSize),
+          sourceTop + (int) ((long) (destination.bottom - top) * height / cellSize));
+      mHasSources[0] = true;
+      mDestinations[0].set(destination);
+      return true;
+    }
+    return false;
+  }
+
+  // all or nothing - a partial set would leave holes anyway
+  private boolean findDescendants(Tile tile) {
+    int zoom = tile.getDetail().getZoom();
+    Detail detail = mDetailList.getFinerThan(zoom);
+    if (detail == null) {
+      return false;
+    }
+    int shift = zoom - detail.getZoom();
+    int count = tile.getImageSample() << shift;
+    if (count * count > MAXIMUM_DESCENDANTS) {
+      return false;
+    }
+    int columnStart = tile.getColumn() << shift;
+    int rowStart = tile.getRow() << shift;
+    int cellSize = mTileSize * detail.getSample();
+    for (int row = rowStart; row < rowStart + count; row++) {
+      for (int column = columnStart; column < columnStart + count; column++) {
+        // past the edge of the image, there's nothing to miss
+        if (!detail.contains(column, row)) {
+          continue;
+        }
+        int index = mCount;
+        if (!add(detail, column, row)) {
+          return false;
+        }
+        mDestinations[index].set(column * cellSize, row * cellSize, (column + 1) * cellSize, (row + 1) * cellSize);
+      }
+    }
+    return mCount > 0;
+  }
+
+  // adds the full size tile of detail at column, row, if it's in memory
+  private boolean add(Detail detail, int column, int row) {
+    Bitmap bitmap = null;
+    Rect source = null;
+    Object pin = null;
+    if (detail == mResidentDetail && detail.contains(column, row) && detail.hasGridSize()) {
+      Tile resident = mResidentTiles[row * detail.getColumns() + column];
+      if (resident.getState() == Tile.State.DECODED) {
+        bitmap = resident.getBitmap();
+        source = resident.getSourceRect();
+        pin = pin(resident);
+      }
+    }
+    if (bitmap == null) {
+      String key = Tile.getCacheKey(column, row, 1, detail.getZoom());
+      TileAtlas.Slot slot = mTileAtlas == null ? null : mTileAtlas.acquire(key);
+      if (slot != null) {
+        bitmap = mTileAtlas.getPage(slot);
+        source = slot.getSource();
+        pin = slot;
+      } else {
+        bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+          mBitmapPool.pin(bitmap);
+          // it may have been taken for reuse before it was pinned
+          if (mMemoryCache.get(key) != bitmap) {
+            mBitmapPool.unpin(bitmap);
+            bitmap = null;
+          }
+          pin = bitmap;
+        }
+      }
+    }
+    if (bitmap == null) {
+      return false;
+    }
+    mBitmaps[mCount] = bitmap;
+    mPins[mCount] = pin;
+    mHasSources[mCount] = source != null;
+    if (source != null) {
+      mSources[mCount].set(source);
+    }
+    mCount++;
+    return true;
+  }
+
+}
@@ -1,13 +1,23 @@
 package com.github.moagrius.tileview;
 
-import java.util.Iterator;
-import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class TileRenderExecutor extends ThreadPoolExecutor {
 
+  // how much each new render time counts toward the average
+  private static final float RENDER_TIME_WEIGHT = 0.2f;
+
+  private final ThreadLocal<long[]> mStartTimes = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+  // exponentially weighted moving average of how long a tile takes, from memory, disk or the stream provider
+  private volatile float mAverageRenderTime;
+
   public TileRenderExecutor(int size) {
     super(size, size, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), task -> {
       Thread thread = new Thread(task);
@@ -20,22 +30,9 @@ public class TileRenderExecutor extends ThreadPoolExecutor {
     this(Runtime.getRuntime().availableProcessors());
   }
 
-  public void queue(Set<Tile> renderSet) {
-    Iterator<Runnable> iterator = getQueue().iterator();
-    while (iterator.hasNext()) {
-      Tile tile = (Tile) iterator.next();
-      if (!renderSet.contains(tile)) {
-        tile.destroy(false);
-        iterator.remove();
-      }
-    }
-    for (Tile tile : renderSet) {
-      if (isShutdownOrTerminating()) {
-        return;
-      }
-      if (tile.getState() == Tile.State.IDLE) {
-        execute(tile);
-      }
+  public void queue(Tile tile) {
+    if (!isShutdownOrTerminating() && tile.getState() == Tile.State.IDLE) {
+      execute(tile);
     }
   }
 
@@ -47,14 +44,36 @@ public class TileRenderExecutor extends ThreadPoolExecutor {
     getQueue().clear();
   }
 
+  /**
+   * @return A rough estimate of how long, in milliseconds, until every tile waiting in the queue has started rendering.
+   * Resident tiles (see TileView.Builder.setShouldKeepCoarsestDetail) don't count - they're background work.
+   */
+  public long getEstimatedQueueTime() {
+    int count = 0;
+    for (Runnable runnable : getQueue()) {
+      if (!((Tile) runnable).isResident()) {
+        count++;
+      }
+    }
+    return (long) (count * mAverageRenderTime / getMaximumPoolSize());
+  }
+
   private boolean isShutdownOrTerminating() {
     return isShutdown() || isTerminating() || isTerminated();
   }
 
+  @Override
+  protected void beforeExecute(Thread thread, Runnable runnable) {
+    super.beforeExecute(thread, runnable);
+    mStartTimes.get()[0] = System.nanoTime();
+  }
+
   @Override
   protected void afterExecute(Runnable runnable, Throwable throwable) {
+    float elapsed = (System.nanoTime() - mStartTimes.get()[0]) / 1000000f;
     synchronized (this) {
       super.afterExecute(runnable, throwable);
+      mAverageRenderTime = mAverageRenderTime == 0 ? elapsed : mAverageRenderTime + RENDER_TIME_WEIGHT * (elapsed - mAverageRenderTime);
       if (getQueue().size() == 0) {
         // TODO: notify something?
       }
@@ -0,0 +1,156 @@
+package com.github.moagrius.tileview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.github.moagrius.tileview.io.CacheMetadata;
+import com.github.moagrius.tileview.io.RevalidatingStreamProvider;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Checks cached tiles from a RevalidatingStreamProvider against their source, in the background, while the cached
+ * version is drawn.
+ *
+ * Stale tiles get a conditional request.  If the tile is unchanged, only its metadata is updated; if it changed, the
+ * new tile is decoded, replaces the old one in the disk cache, and is handed to the listener on the UI thread, so only
+ * tiles that actually changed are redrawn.
+ *
+ * Each tile's expiry is remembered once it's been read from disk (or written), so tiles drawn again from memory are only
+ * checked - on disk or at the source - once they've actually expired.
+ *
+ * This has its own small pool - the TileRenderExecutor only runs Tiles, and revalidation should never hold up decoding
+ * what's on screen.
+ */
+class TileRevalidator {
+
+  private static final int THREAD_COUNT = 2;
+  private static final String THREAD_NAME = "tileview-revalidate";
+  private static final int MINIMUM_EXPIRATIONS = 256;
+
+  private final Context mContext;
+  private final RevalidatingStreamProvider mStreamProvider;
+  private final DiskCache mDiskCache;
+  private final Bitmap.Config mBitmapConfig;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final Set<String> mPendingKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  // when each tile we know of expires - Long.MAX_VALUE if it's cached without metadata, so there's nothing to check.
+  // bounded by about as many tiles as the disk cache holds, forgetting the least recently checked - a forgotten tile
+  // just gets read from disk again
+  private final Map<String, Long> mExpirations;
+  private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, runnable -> new Thread(runnable, THREAD_NAME));
+  private volatile boolean mIsShutdown;
+
+  TileRevalidator(Context context, RevalidatingStreamProvider streamProvider, DiskCache diskCache, Bitmap.Config bitmapConfig, Listener listener) {
+    mContext = context;
+    mStreamProvider = streamProvider;
+    mDiskCache = diskCache;
+    mBitmapConfig = bitmapConfig;
+    mListener = listener;
+    int maximumExpirations = Math.max(MINIMUM_EXPIRATIONS, diskCache.getEstimatedEntryCount());
+    mExpirations = Collections.synchronizedMap(new LinkedHashMap<String, Long>(0, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maximumExpirations;
+      }
+    });
+  }
+
+  RevalidatingStreamProvider getStreamProvider() {
+    return mStreamProvider;
+  }
+
+  /**
+   * Checks the tile cached under key, if it's stale.  Does nothing if a check for that key is already pending.
+   */
+  void revalidate(String key, int column, int row, Object data) {
+    Long expires = mExpirations.get(key);
+    if (expires != null && System.currentTimeMillis() < expires) {
+      return;
+    }
+    if (mIsShutdown || !mPendingKeys.add(key)) {
+      return;
+    }
+    try {
+      mExecutor.execute(() -> {
+        try {
+          check(key, column, row, data);
+        } catch (Exception e) {
+          // no op, the cached tile is still good to draw and we'll try again the next time it's read
+        } finally {
+          mPendingKeys.remove(key);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      mPendingKeys.remove(key);
+    }
+  }
+
+  /**
+   * Remembers when a tile that was just written to the disk cache expires, so it isn't read back to find out.
+   */
+  void onCached(String key, CacheMetadata metadata) {
+    mExpirations.put(key, metadata == null ? Long.MAX_VALUE : metadata.getExpires());
+  }
+
+  private void check(String key, int column, int row, Object data) throws Exception {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+    // until the disk cache is open, every tile looks uncached - we'll know more next time
+    if (!mDiskCache.isOpen()) {
+      return;
+    }
+    CacheMetadata metadata = mDiskCache.getMetadata(key);
+    // not cached (evicted, in which case there's nothing to revalidate), cached without metadata, or still fresh
+    if (metadata == null || !metadata.isStale()) {
+      onCached(key, metadata);
+      return;
+    }
+    RevalidatingStreamProvider.Response response = mStreamProvider.getStream(column, row, mContext, data, metadata);
+    if (!response.isModified()) {
+      mDiskCache.setMetadata(key, response.getMetadata());
+      onCached(key, response.getMetadata());
+      return;
+    }
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inPreferredConfig = mBitmapConfig;
+    options.inMutable = true;
+    Bitmap bitmap = BitmapFactory.decodeStream(response.getStream(), null, options);
+    if (bitmap == null || mIsShutdown) {
+      return;
+    }
+    // put won't overwrite an existing entry
+    mDiskCache.remove(key);
+    mDiskCache.put(key, bitmap, response.getMetadata());
+    onCached(key, response.getMetadata());
+    mHandler.post(() -> {
+      if (!mIsShutdown) {
+        mListener.onTileChanged(key, bitmap);
+      }
+    });
+  }
+
+  void shutdown() {
+    mIsShutdown = true;
+    mExecutor.shutdownNow();
+  }
+
+  interface Listener {
+    /**
+     * Called on the UI thread when the tile cached under key was found to have changed.
+     */
+    void onTileChanged(String key, Bitmap bitmap);
+  }
+
+}
@@ -4,37 +4,61 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
-import android.graphics.Region;
 import android.os.Handler;
-import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.FrameLayout;
 
+import com.github.moagrius.tileview.io.MetaTileStreamProvider;
+import com.github.moagrius.tileview.io.RevalidatingStreamProvider;
 import com.github.moagrius.tileview.io.StreamProvider;
 import com.github.moagrius.tileview.io.StreamProviderAssets;
+import com.github.moagrius.tileview.io.TileRenderer;
 import com.github.moagrius.utils.Maths;
 import com.github.moagrius.widget.ScalingScrollView;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TileView extends ScalingScrollView implements
-    Handler.Callback,
+    Choreographer.FrameCallback,
     ScalingScrollView.ScaleChangedListener,
     Tile.DrawingView,
     Tile.Listener,
-    TilingBitmapView.Provider {
+    TileRevalidator.Listener,
+    TilingBitmapView.Provider,
+    TilingSurfaceView.Provider {
 
   // constants
-  private static final int RENDER_THROTTLE_ID = 0;
-  private static final int RENDER_THROTTLE_INTERVAL = 15;
+  // with adaptive detail, how far behind the render queue can get before we drop to a coarser detail level
+  private static final int ADAPTIVE_QUEUE_TIME_LIMIT = 500;
+  // and how long the viewport has to be still before we go back to the exact level
+  private static final int ADAPTIVE_SETTLE_DELAY = 300;
+  // and after going back, how long before we'd drop again, unless the exact level's tiles are all in by then
+  private static final int ADAPTIVE_COOLDOWN = 2000;
+  // resident tiles are never released, so they get at most this much of the memory budget
+  private static final int RESIDENT_BUDGET_DIVISOR = 4;
+  // how much of what's left of a frame (when its callbacks run) newly decoded tiles can take to draw
+  private static final float COMMIT_BUDGET = 0.5f;
+  private static final long DEFAULT_FRAME_INTERVAL = 1000000000L / 60;
+  // nanoseconds to draw a newly decoded tile, until we've measured it
+  private static final long INITIAL_COMMIT_COST = 1000000L;
 
   // variables (settable)
   private int mZoom = 0;
@@ -43,6 +67,15 @@ public class TileView extends ScalingScrollView implements
   private boolean mIsPrepared;
   private boolean mIsLaidOut;
   private boolean mHasRunOnReady;
+  private boolean mShouldAdaptDetail;
+  private boolean mIsDetailDowngraded;
+  // back at the exact level, and its tiles may still be coming
+  private boolean mIsSharpening;
+  private long mSharpenedAt;
+  private boolean mIsFrameCallbackPosted;
+  // what the tile grid was last computed for, along with mViewport
+  private float mComputedScale;
+  private Detail mComputedDetail;
   private Detail mCurrentDetail;
 
   private Set<Listener> mListeners = new LinkedHashSet<>();
@@ -53,36 +86,65 @@ public class TileView extends ScalingScrollView implements
   // variables (from build or attach)
   private FixedSizeViewGroup mContainer;
   private TilingBitmapView mTilingBitmapView;
-  private BitmapCache mDiskCache;
+  private TilingSurfaceView mTilingSurfaceView;
+  private DiskCache mDiskCache;
   private BitmapCache mMemoryCache;
   private BitmapPool mBitmapPool;
   private StreamProvider mStreamProvider;
+  private TileRenderer mTileRenderer;
   private Bitmap.Config mBitmapConfig = Bitmap.Config.RGB_565;
   private DiskCachePolicy mDiskCachePolicy = DiskCachePolicy.CACHE_PATCHES;
+  private MissingTileCache mMissingTileCache;
+  private boolean mShouldPersistMissingTiles;
+  private TileRevalidator mRevalidator;
+  private MetaTileDecoder mMetaTileDecoder;
+  private TileAtlas mTileAtlas;
+  private TileFallback mTileFallback;
+  // what the last draw pass's fallbacks drew - a hardware accelerated view draws from its display list after onDraw
+  // returns, so they're held until the next pass
+  private final ArrayList<Object> mFallbackPins = new ArrayList<>();
+  private boolean mShouldKeepCoarsestDetail;
+  private int mMaximumResidentTiles;
+  private boolean mShouldFreezeTilesWhilePinching;
+  private boolean mIsPinching;
 
   // final
   private final Grid mGrid = new Grid();
   private final DetailList mDetailList = new DetailList();
   private final Map<Class<? extends Plugin>, Plugin> mPlugins = new HashMap<>();
 
-  // we keep our tiles in Sets
-  // that means we're ensured uniqueness (so we don't have to think about if a tile is already scheduled or not)
-  // and O(1) contains, as well as no penalty with foreach loops (excluding the allocation of the iterator)
+  // tiles left over from the previous zoom are kept in a Set
+  // that means we're ensured uniqueness, and O(1) contains, as well as no penalty with foreach loops (excluding the allocation of the iterator)
   // we use the specific LinkedHashSet implementation to take advantage of potentially faster iteration on optimized VMS
   // at the potential expense of more space required
   // https://lemire.me/blog/2018/03/13/iterating-over-hash-sets-quickly-in-java/
   // we'll use enhanced for loops without testing empty as well https://stackoverflow.com/a/20898524/6585616
-  private final Set<Tile> mNewlyVisibleTiles = new LinkedHashSet<>();
-  private final Set<Tile> mTilesVisibleInViewport = new LinkedHashSet<>();
+  // tiles in the viewport are kept in a TileWindow, which is updated incrementally as the viewport moves
   private final Set<Tile> mPreviouslyDrawnTiles = new LinkedHashSet<>();
 
   private final Rect mViewport = new Rect();
-  private final Rect mScaledViewport = new Rect();  // really just a buffer for unfilled region
-  private final Region mUnfilledRegion = new Region();
+  private final Rect mScaledViewport = new Rect();  // the viewport in unscaled pixels, to test previous tiles against
+  private final TileCoverage mCoverage = new TileCoverage();
+  private final Rect mClipRect = new Rect();  // what's being redrawn, in unscaled pixels
 
   private final TilePool mTilePool = new TilePool(this::createTile);
   private final TileRenderExecutor mExecutor = new TileRenderExecutor();
-  private final Handler mRenderThrottle = new Handler(this);
+  private final TileWindow mTileWindow = new TileWindow(mTilePool, mExecutor);
+  private final Handler mHandler = new Handler();
+  private final Runnable mSettledCallback = this::onViewportSettled;
+
+  // tiles decoded on worker threads, waiting to be committed (drawn) on the UI thread, a few a frame
+  private final ConcurrentLinkedQueue<Tile> mDecodedTiles = new ConcurrentLinkedQueue<>();
+  private final ArrayList<Tile> mUncommittedTiles = new ArrayList<>();
+  private final AtomicBoolean mIsCommitPosted = new AtomicBoolean();
+  private final Runnable mCommitCallback = this::onCommitPosted;
+  private final Comparator<Tile> mCenterFirstComparator = this::compareDistanceToCenter;
+  private long mCommitCost = INITIAL_COMMIT_COST;
+  // unscaled, the union of the tiles committed this frame
+  private final Rect mCommittedRect = new Rect();
+  // what a draw pass costs with nothing newly committed in it
+  private long mBaseDrawCost;
+  private int mCommittedTileCount;
 
   public TileView(Context context) {
     this(context, null);
@@ -101,9 +163,11 @@ public class TileView extends ScalingScrollView implements
     // by calling it during construction, no other views will be allowed
     // (unless the user hacks intended behavior by removing all views or by index)
     mContainer = new FixedSizeViewGroup(context);
-    // we'll draw bitmaps to this view
+    // we'll draw bitmaps to this view.  it's only as big as the viewport, and follows it as we scroll, drawing the tiles
+    // under it - plugin views are still laid out at the full content size
     mTilingBitmapView = new TilingBitmapView(this);
     mContainer.addView(mTilingBitmapView);
+    mContainer.setViewportView(mTilingBitmapView);
     addView(mContainer);
   }
 
@@ -155,6 +219,13 @@ public class TileView extends ScalingScrollView implements
     return mContainer;
   }
 
+  /**
+   * Forgets every tile that was found to be missing, e.g., after the tile set was updated on the server.
+   */
+  public void clearMissingTiles() {
+    mMissingTileCache.clear();
+  }
+
   @SuppressWarnings("unchecked")
   public <T extends Plugin> T getPlugin(Class<T> clazz) {
     return (T) mPlugins.get(clazz);
@@ -163,16 +234,41 @@ public class TileView extends ScalingScrollView implements
   // not
 
   private void defineZoomLevel(int zoom, Object data) {
-    mDetailList.set(zoom, new Detail(zoom, data));
+    defineZoomLevel(new Detail(zoom, data));
+  }
+
+  private void defineZoomLevel(Detail detail) {
+    mDetailList.set(detail.getZoom(), detail);
     determineCurrentDetail();
   }
 
+  // any detail level that didn't declare its grid size gets one derived from the content size
+  private void establishDetailGridSizes() {
+    for (Detail detail : mDetailList) {
+      if (detail != null && !detail.hasGridSize()) {
+        int cellSize = mTileSize * detail.getSample();
+        int columns = (int) Math.ceil(mContainer.mWidth / (float) cellSize);
+        int rows = (int) Math.ceil(mContainer.mHeight / (float) cellSize);
+        detail.setGridSize(columns, rows);
+      }
+    }
+  }
+
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    // not while the window is still attaching us - hosting the surface takes us out of our parent and puts us back
+    if (mTilingSurfaceView != null) {
+      post(this::hostSurface);
+    }
+  }
+
   @Override
   protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
     super.onLayout(changed, left, top, right, bottom);
     mIsLaidOut = true;
     if (!attemptOnReady()) {
-      updateViewportAndComputeTilesThrottled();
+      updateViewportAndComputeTilesOnNextFrame();
     }
   }
 
@@ -198,10 +294,24 @@ public class TileView extends ScalingScrollView implements
     return result;
   }
 
+  @Override
+  protected void onSizeChanged(int width, int height, int previousWidth, int previousHeight) {
+    super.onSizeChanged(width, height, previousWidth, previousHeight);
+    mContainer.setViewportSize(width, height);
+  }
+
   @Override
   protected void onScrollChanged(int x, int y, int previousX, int previousY) {
     super.onScrollChanged(x, y, previousX, previousY);
-    updateViewportAndComputeTilesThrottled();
+    // before the redraw, so a surface frame is taken after the viewport for it is computed
+    updateViewportAndComputeTilesOnNextFrame();
+    // keep the tiling view over the viewport - it draws what's under it, so it has to draw again.  a surface stays put
+    // outside of us, and only what it draws follows the scroll
+    if (mTilingSurfaceView == null) {
+      mTilingBitmapView.setTranslationX(x);
+      mTilingBitmapView.setTranslationY(y);
+    }
+    redrawTiles();
     for (Listener listener : mListeners) {
       listener.onScrollChanged(x, y);
     }
@@ -213,22 +323,12 @@ public class TileView extends ScalingScrollView implements
       listener.onScaleChanged(currentScale, previousScale);
     }
     int previousZoom = mZoom;
-    mZoom = Detail.getZoomFromPercent(currentScale);
-    boolean zoomChanged = mZoom != previousZoom;
-    if (zoomChanged) {
-      mPreviouslyDrawnTiles.clear();
-      for (Tile tile : mTilesVisibleInViewport) {
-        if (tile.getState() == Tile.State.DECODED) {
-          mPreviouslyDrawnTiles.add(tile);
-        }
-      }
-      mTilesVisibleInViewport.clear();
-      determineCurrentDetail();
-    }
+    // mid pinch, the tiles we have are just drawn at the gesture's scale - the zoom level is resolved when it ends
+    boolean zoomChanged = !mIsPinching && updateZoom();
     updateScaledViewport();
-    updateViewportAndComputeTilesThrottled();
+    updateViewportAndComputeTilesOnNextFrame();
     // if this is setDirty or postInvalidate, things get wonky
-    mTilingBitmapView.invalidate();
+    redrawTiles();
     // if we call this in onZoomChanged, we might reference outdated values for viewport and tile sets
     if (zoomChanged) {
       for (Listener listener : mListeners) {
@@ -237,22 +337,58 @@ public class TileView extends ScalingScrollView implements
     }
   }
 
+  // true if the zoom level changed, in which case the old level's tiles stay on screen while the new level's decode
+  private boolean updateZoom() {
+    int previousZoom = mZoom;
+    mZoom = Detail.getZoomFromPercent(getScale());
+    if (mZoom == previousZoom) {
+      return false;
+    }
+    preserveDecodedTiles();
+    determineCurrentDetail();
+    return true;
+  }
+
+  @Override
+  public boolean onScaleBegin(ScaleGestureDetector scaleGestureDetector) {
+    mIsPinching = mShouldFreezeTilesWhilePinching;
+    return super.onScaleBegin(scaleGestureDetector);
+  }
+
+  // tiles weren't computed during the pinch, so do it now, once, for wherever it ended up
+  @Override
+  public void onScaleEnd(ScaleGestureDetector scaleGestureDetector) {
+    super.onScaleEnd(scaleGestureDetector);
+    if (!mIsPinching) {
+      return;
+    }
+    mIsPinching = false;
+    int previousZoom = mZoom;
+    boolean zoomChanged = updateZoom();
+    updateViewportAndComputeTiles();
+    redrawTiles();
+    if (zoomChanged) {
+      for (Listener listener : mListeners) {
+        listener.onZoomChanged(mZoom, previousZoom);
+      }
+    }
+  }
+
   private void determineCurrentDetail() {
+    mIsDetailDowngraded = false;
     // if zoom from scale is greater than the number of defined detail levels, we definitely don't have it
     // since it's not an exact match, we need to patch together bitmaps from the last known zoom level
     // so if we have a detail level defined for zoom level 1 (sample 2) but are on zoom level 2 (sample 4) we want an actual sample of 2
     // similarly if we have definition for sample zoom 1 / sample 2 and are on zoom 3 / sample 8, we want actual sample of 4
     // this is also the case for the third block, below.
     if (mZoom >= mDetailList.size()) {
-      mCurrentDetail = mDetailList.getHighestDefined();
-      int zoomDelta = mZoom - mCurrentDetail.getZoom();
-      mImageSample = 1 << zoomDelta;
+      setCurrentDetail(mDetailList.getHighestDefined());
       return;
     }
     // best case, it's an exact match, use that and set sample to 1
     Detail exactMatch = mDetailList.get(mZoom);
     if (exactMatch != null) {
-      mCurrentDetail = exactMatch;
+      setCurrentDetail(exactMatch);
       return;
     }
     // it's not bigger than what we have defined, but we don't have an exact match, start at the requested zoom and work back
@@ -260,50 +396,164 @@ public class TileView extends ScalingScrollView implements
     for (int i = mZoom - 1; i >= 0; i--) {
       Detail current = mDetailList.get(i);
       if (current != null) {  // if it's defined
-        mCurrentDetail = current;
-        int zoomDelta = mZoom - mCurrentDetail.getZoom();
-        mImageSample = 1 << zoomDelta;
+        setCurrentDetail(current);
         return;
       }
     }
   }
 
-  private void establishDirtyRegion() {
-    mUnfilledRegion.set(mScaledViewport);
-    // then punch holes in it for every decoded current tile
-    // when drawing previous tiles, if there's no intersection with an unfilled area, it can be safely discarded
-    // otherwise we should draw the previous tile
-    for (Tile tile : mTilesVisibleInViewport) {
+  // a detail finer than the zoom is patched together at an image sample, one coarser than the zoom (only when adapting
+  // to throughput) is just drawn scaled up
+  private void setCurrentDetail(Detail detail) {
+    mCurrentDetail = detail;
+    int zoomDelta = Math.max(0, mZoom - detail.getZoom());
+    mImageSample = 1 << zoomDelta;
+  }
+
+  // keep drawing what's already decoded while the tiles that replace it decode
+  private void preserveDecodedTiles() {
+    // the last level's leftovers that weren't culled yet - they'd keep their slots or bitmaps forever if just dropped
+    for (Tile tile : mPreviouslyDrawnTiles) {
+      tile.destroy();
+    }
+    mPreviouslyDrawnTiles.clear();
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      Tile tile = mTileWindow.get(i);
       if (tile.getState() == Tile.State.DECODED) {
-        mUnfilledRegion.op(tile.getDrawingRect(), Region.Op.DIFFERENCE);
+        mPreviouslyDrawnTiles.add(tile);
+      } else {
+        // not worth finishing
+        tile.destroy();
       }
     }
+    mTileWindow.clear(false);
   }
 
-  private void drawPreviousTiles(Canvas canvas) {
-    establishDirtyRegion();
-    if (mUnfilledRegion.isEmpty()) {
+  // if the tiles already waiting won't even start for a while, render from the next coarser detail level instead, so the
+  // screen fills quickly.  once the viewport settles, we go back to the exact level (see onViewportSettled)
+  private void adaptDetailToThroughput() {
+    mHandler.removeCallbacks(mSettledCallback);
+    mHandler.postDelayed(mSettledCallback, ADAPTIVE_SETTLE_DELAY);
+    // only ever one level coarser than the exact detail, however long the queue stays backed up
+    if (mIsDetailDowngraded || mExecutor.getEstimatedQueueTime() < ADAPTIVE_QUEUE_TIME_LIMIT) {
+      return;
+    }
+    // right after sharpening, the queue is full of the exact tiles we just asked for - dropping again would throw away
+    // fetches still in flight, and a slow link would keep us coarse for as long as the user pans
+    if (mIsSharpening) {
+      if (!isWindowSettled() && SystemClock.uptimeMillis() - mSharpenedAt < ADAPTIVE_COOLDOWN) {
+        return;
+      }
+      mIsSharpening = false;
+    }
+    Detail coarser = mDetailList.getCoarserThan(mCurrentDetail.getZoom());
+    if (coarser == null) {
+      return;
+    }
+    preserveDecodedTiles();
+    setCurrentDetail(coarser);
+    mIsDetailDowngraded = true;
+  }
+
+  // sharpen, but only once the coarser level has filled the screen - otherwise we'd just be blank again
+  private void onViewportSettled() {
+    // a pinch recomputes everything when it ends anyway
+    if (!mIsDetailDowngraded || !isReady() || mIsPinching) {
+      return;
+    }
+    if (!isWindowSettled()) {
+      mHandler.postDelayed(mSettledCallback, ADAPTIVE_SETTLE_DELAY);
       return;
     }
+    preserveDecodedTiles();
+    determineCurrentDetail();
+    computeAndRenderTilesInViewport();
+    mIsSharpening = true;
+    mSharpenedAt = SystemClock.uptimeMillis();
+  }
+
+  // every tile in the window is drawn - tiles that failed won't get any further, so they count
+  private boolean isWindowSettled() {
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      Tile tile = mTileWindow.get(i);
+      if (!tile.isCommitted() && tile.getState() != Tile.State.FAILED) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void establishCoverage() {
+    Detail detail = mTileWindow.getDetail();
+    int cellSize = detail == null ? 1 : mTileSize * detail.getSample() * mTileWindow.getImageSample();
+    mCoverage.reset(mTileWindow.getColumnStart(), mTileWindow.getRowStart(), mTileWindow.getColumns(), mTileWindow.getRows(), cellSize);
+    // mark every cell that has a decoded current tile
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      if (mTileWindow.get(i).isCommitted()) {
+        mCoverage.fill(i);
+      }
+    }
+  }
+
+  // true if the part of rect that's in the viewport is entirely covered by decoded current tiles
+  private boolean isCovered(Rect rect) {
+    return mCoverage.isFilled(
+        Math.max(rect.left, mScaledViewport.left),
+        Math.max(rect.top, mScaledViewport.top),
+        Math.min(rect.right, mScaledViewport.right),
+        Math.min(rect.bottom, mScaledViewport.bottom));
+  }
+
+  // if no part of a previous tile is showing through the current tiles, it can be safely discarded
+  private void cullPreviousTiles() {
+    if (mPreviouslyDrawnTiles.isEmpty()) {
+      return;
+    }
+    establishCoverage();
+    boolean isViewportCovered = isCovered(mScaledViewport);
     Iterator<Tile> iterator = mPreviouslyDrawnTiles.iterator();
     while (iterator.hasNext()) {
       Tile tile = iterator.next();
-      Rect rect = tile.getDrawingRect();
-      // if no part of the rect is in the unfilled area, we don't need it
-      // use quickReject instead of quickContains because the latter does not work on complex Regions
-      // https://developer.android.com/reference/android/graphics/Region.html#quickContains(android.graphics.Rect)
-      if (mUnfilledRegion.quickReject(rect)) {
+      if (isViewportCovered || isCovered(tile.getDrawingRect())) {
         tile.destroy();
         iterator.remove();
-      } else {
+      }
+    }
+  }
+
+  private void drawPreviousTiles(Canvas canvas) {
+    cullPreviousTiles();
+    for (Tile tile : mPreviouslyDrawnTiles) {
+      if (Rect.intersects(mClipRect, tile.getDrawingRect())) {
         tile.draw(canvas);
       }
     }
   }
 
+  // tiles that are still decoding are stood in for by tiles of other detail levels that are already in memory
+  private void drawFallbackTiles(Canvas canvas) {
+    for (int i = 0; i < mFallbackPins.size(); i++) {
+      mTileFallback.unpin(mFallbackPins.get(i));
+    }
+    mFallbackPins.clear();
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      Tile tile = mTileWindow.get(i);
+      if (!tile.isCommitted() && Rect.intersects(mClipRect, tile.getDrawingRect())) {
+        int count = mTileFallback.find(tile);
+        for (int j = 0; j < count; j++) {
+          canvas.drawBitmap(mTileFallback.getBitmap(j), mTileFallback.getSource(j), mTileFallback.getDestination(j), null);
+          mFallbackPins.add(mTileFallback.getPin(j));
+        }
+      }
+    }
+  }
+
   private void drawCurrentTiles(Canvas canvas) {
-    for (Tile tile : mTilesVisibleInViewport) {
-      tile.draw(canvas);
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      Tile tile = mTileWindow.get(i);
+      if (Rect.intersects(mClipRect, tile.getDrawingRect())) {
+        tile.draw(canvas);
+      }
     }
   }
 
@@ -317,33 +567,228 @@ public class TileView extends ScalingScrollView implements
 
   @Override
   public void drawTiles(Canvas canvas) {
+    // when only part of the view was invalidated (e.g., a tile decoded), only draw the tiles that touch that part
+    if (!canvas.getClipBounds(mClipRect)) {
+      return;
+    }
+    long start = System.nanoTime();
+    drawFallbackTiles(canvas);
     drawPreviousTiles(canvas);
     drawCurrentTiles(canvas);
     drawInterceptors(canvas);
+    // charge what the pass cost over one with no commits to the tiles committed for it - otherwise the cost would grow
+    // with everything else on screen, rather than with the commits
+    long elapsed = System.nanoTime() - start;
+    if (mCommittedTileCount > 0) {
+      long cost = Math.max(0, elapsed - mBaseDrawCost) / mCommittedTileCount;
+      mCommitCost = (mCommitCost * 3 + cost) / 4;
+      mCommittedTileCount = 0;
+    } else {
+      mBaseDrawCost = (mBaseDrawCost * 3 + elapsed) / 4;
+    }
   }
 
+  // Implementing TilingSurfaceView.Provider - the same tiles drawTiles would draw, for the render thread to draw instead
   @Override
-  public void setDirty() {
-    mTilingBitmapView.setDirty();
+  public void populateFrame(TilingSurfaceView.Frame frame) {
+    frame.setViewport(getScrollX(), getScrollY(), getScale());
+    // draw cost isn't measured here (it's on the render thread), so commits are budgeted at the initial estimate
+    mCommittedTileCount = 0;
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      Tile tile = mTileWindow.get(i);
+      if (!tile.isCommitted() && Rect.intersects(mScaledViewport, tile.getDrawingRect())) {
+        int count = mTileFallback.find(tile);
+        for (int j = 0; j < count; j++) {
+          frame.addTile(mTileFallback.getBitmap(j), mTileFallback.getSource(j), mTileFallback.getDestination(j));
+          frame.addPin(mTileFallback.getPin(j));
+        }
+      }
+    }
+    cullPreviousTiles();
+    for (Tile tile : mPreviouslyDrawnTiles) {
+      addTileToFrame(frame, tile);
+    }
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      addTileToFrame(frame, mTileWindow.get(i));
+    }
+    for (CanvasDecorator canvasDecorator : mCanvasDecorators) {
+      frame.addDecorator(canvasDecorator);
+    }
+  }
+
+  private void addTileToFrame(TilingSurfaceView.Frame frame, Tile tile) {
+    Bitmap bitmap = tile.getBitmap();
+    if (tile.isCommitted() && bitmap != null && Rect.intersects(mScaledViewport, tile.getDrawingRect())) {
+      frame.addTile(bitmap, tile.getSourceRect(), tile.getDrawingRect());
+      frame.addPin(mTileFallback.pin(tile));
+    }
   }
 
-  // Implementing Handler.Callback handleMessage to react to throttled requests to start a render op
+  // Implementing TilingSurfaceView.Provider - the render thread is done with a frame, so what it drew can be reused
   @Override
-  public boolean handleMessage(Message message) {
-    updateViewportAndComputeTiles();
-    return true;
+  public void unpin(Object pin) {
+    mTileFallback.unpin(pin);
+  }
+
+  private void setDirty(Rect rect) {
+    if (mTilingSurfaceView != null) {
+      mTilingSurfaceView.requestRender();
+    } else {
+      mTilingBitmapView.setDirty(rect);
+    }
+  }
+
+  private void redrawTiles() {
+    if (mTilingSurfaceView != null) {
+      mTilingSurfaceView.requestRender();
+    } else {
+      mTilingBitmapView.invalidate();
+    }
+  }
+
+  // swaps the tiling view for one that draws on a render thread - the surface takes the tiling view's place in the container
+  private void renderOnSurface() {
+    mContainer.removeView(mTilingBitmapView);
+    mContainer.setViewportView(null);
+    mTilingSurfaceView = new TilingSurfaceView(this);
+    if (getParent() != null) {
+      post(this::hostSurface);
+    }
+  }
+
+  // a surface moved along with the scroll (as the bitmap view is, by translation) would be positioned on the UI thread,
+  // out of step with the frames the render thread posts, so tiles would jitter while panning - instead it's kept still,
+  // behind us, in a frame that takes our place in our parent
+  private void hostSurface() {
+    ViewParent parent = getParent();
+    if (mTilingSurfaceView.getParent() != null || !(parent instanceof ViewGroup)) {
+      return;
+    }
+    ViewGroup group = (ViewGroup) parent;
+    int index = group.indexOfChild(this);
+    ViewGroup.LayoutParams params = getLayoutParams();
+    group.removeView(this);
+    FrameLayout host = new FrameLayout(getContext());
+    host.addView(mTilingSurfaceView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+    host.addView(this, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+    group.addView(host, index, params);
+  }
+
+  // Implementing Choreographer.FrameCallback - runs before the frame is drawn, so tiles for a new viewport are requested
+  // in the same frame it moved, and at most once per frame however many scroll and scale changes there were
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    mIsFrameCallbackPosted = false;
+    if (hasViewportChanged()) {
+      // while pinching, keep the viewport current for drawing, but don't ask for tiles that'll be obsolete in a few frames
+      if (mIsPinching) {
+        updateViewport();
+      } else {
+        updateViewportAndComputeTiles();
+      }
+    }
+    commitDecodedTiles(frameTimeNanos);
+  }
+
+  // admits decoded tiles to the drawn tiles, nearest the center of the viewport first, as many as the time left in this
+  // frame allows - a batch finishing at once (e.g., when a zoom settles) is spread over a few frames instead of one hitch
+  private void commitDecodedTiles(long frameTimeNanos) {
+    Tile tile;
+    while ((tile = mDecodedTiles.poll()) != null) {
+      mUncommittedTiles.add(tile);
+    }
+    if (mUncommittedTiles.isEmpty()) {
+      return;
+    }
+    Collections.sort(mUncommittedTiles, mCenterFirstComparator);
+    long budget = (long) ((frameTimeNanos + getFrameInterval() - System.nanoTime()) * COMMIT_BUDGET);
+    // always at least one, or a slow device would never draw anything
+    long limit = Math.max(1, budget / Math.max(1, mCommitCost));
+    int committed = 0;
+    int index = 0;
+    mCommittedRect.setEmpty();
+    for (; index < mUncommittedTiles.size() && committed < limit; index++) {
+      tile = mUncommittedTiles.get(index);
+      // destroyed (or reused) since it was decoded - if it's decoded again, it'll be queued again
+      if (tile.getState() != Tile.State.DECODED || tile.isCommitted()) {
+        continue;
+      }
+      tile.commit();
+      mCommittedRect.union(tile.getDrawingRect());
+      committed++;
+    }
+    mUncommittedTiles.subList(0, index).clear();
+    // we're in this frame's callbacks, so invalidating now gets the tiles into this frame, not the next
+    if (committed > 0) {
+      if (mTilingSurfaceView != null) {
+        mTilingSurfaceView.requestRender();
+      } else {
+        mTilingBitmapView.invalidateContent(mCommittedRect);
+      }
+    }
+    mCommittedTileCount += committed;
+    if (!mUncommittedTiles.isEmpty()) {
+      updateViewportAndComputeTilesOnNextFrame();
+    }
+  }
+
+  private int compareDistanceToCenter(Tile a, Tile b) {
+    return Long.compare(getDistanceToCenter(a), getDistanceToCenter(b));
+  }
+
+  // squared, in unscaled pixels
+  private long getDistanceToCenter(Tile tile) {
+    Rect rect = tile.getDrawingRect();
+    long x = (rect.left + rect.right) / 2 - (mScaledViewport.left + mScaledViewport.right) / 2;
+    long y = (rect.top + rect.bottom) / 2 - (mScaledViewport.top + mScaledViewport.bottom) / 2;
+    return x * x + y * y;
+  }
+
+  private long getFrameInterval() {
+    Display display = getDisplay();
+    if (display != null && display.getRefreshRate() > 0) {
+      return (long) (1000000000L / display.getRefreshRate());
+    }
+    return DEFAULT_FRAME_INTERVAL;
+  }
+
+  // Implementing Tile.Listener - on a decoding thread, so just queue it, and ask for a frame to commit it in
+  @Override
+  public void onTileDecoded(Tile tile) {
+    mDecodedTiles.add(tile);
+    if (mIsCommitPosted.compareAndSet(false, true)) {
+      mHandler.post(mCommitCallback);
+    }
+  }
+
+  private void onCommitPosted() {
+    mIsCommitPosted.set(false);
+    updateViewportAndComputeTilesOnNextFrame();
+  }
+
+  private boolean hasViewportChanged() {
+    return getScrollX() != mViewport.left
+        || getScrollY() != mViewport.top
+        || getMeasuredWidth() != mViewport.width()
+        || getMeasuredHeight() != mViewport.height()
+        || getScale() != mComputedScale
+        || mCurrentDetail != mComputedDetail;
   }
 
   private void updateViewportAndComputeTiles() {
     if (isReady()) {
       updateViewport();
+      if (mShouldAdaptDetail) {
+        adaptDetailToThroughput();
+      }
       computeAndRenderTilesInViewport();
     }
   }
 
-  private void updateViewportAndComputeTilesThrottled() {
-    if (!mRenderThrottle.hasMessages(RENDER_THROTTLE_ID)) {
-      mRenderThrottle.sendEmptyMessageDelayed(RENDER_THROTTLE_ID, RENDER_THROTTLE_INTERVAL);
+  private void updateViewportAndComputeTilesOnNextFrame() {
+    if (!mIsFrameCallbackPosted) {
+      mIsFrameCallbackPosted = true;
+      Choreographer.getInstance().postFrameCallback(this);
     }
   }
 
@@ -372,45 +817,27 @@ public class TileView extends ScalingScrollView implements
     mGrid.rows.end = Maths.roundUpWithStep(mViewport.bottom / tileSize, mImageSample);
     mGrid.columns.start = Maths.roundDownWithStep(mViewport.left / tileSize, mImageSample);
     mGrid.columns.end = Maths.roundUpWithStep(mViewport.right / tileSize, mImageSample);
+    // don't ask for tiles past the edge of the content (e.g., when the viewport is larger than the scaled image)
+    mGrid.rows.start = Math.max(0, mGrid.rows.start);
+    mGrid.columns.start = Math.max(0, mGrid.columns.start);
+    if (mCurrentDetail.hasGridSize()) {
+      mGrid.rows.end = Math.min(mGrid.rows.end, mCurrentDetail.getRows());
+      mGrid.columns.end = Math.min(mGrid.columns.end, mCurrentDetail.getColumns());
+    }
   }
 
   public Tile createTile() {
-    return new Tile(mTileSize, mBitmapConfig, this, this, mExecutor, mStreamProvider, mMemoryCache, mDiskCache, mBitmapPool, mDiskCachePolicy);
+    return new Tile(mTileSize, mBitmapConfig, this, this, mExecutor, mStreamProvider, mMemoryCache, mDiskCache, mBitmapPool, mDiskCachePolicy, mMissingTileCache, mRevalidator, mMetaTileDecoder, mTileRenderer, mTileAtlas);
   }
 
   private void computeAndRenderTilesInViewport() {
+    mComputedScale = getScale();
+    mComputedDetail = mCurrentDetail;
     // determine which tiles should be showing.  use sample size for patching very small tiles together
-    mNewlyVisibleTiles.clear();
     populateTileGridFromViewport();
-    for (int row = mGrid.rows.start; row < mGrid.rows.end; row += mImageSample) {
-      for (int column = mGrid.columns.start; column < mGrid.columns.end; column += mImageSample) {
-        Tile tile = mTilePool.get();
-        tile.setColumn(column);
-        tile.setRow(row);
-        tile.setDetail(mCurrentDetail);
-        tile.setImageSample(mImageSample);
-        mNewlyVisibleTiles.add(tile);
-      }
-    }
-    // update our sets to reflect the current state, schedule draws, and clean up
-    Iterator<Tile> tilesVisibleInViewportIterator = mTilesVisibleInViewport.iterator();
-    while (tilesVisibleInViewportIterator.hasNext()) {
-      Tile tile = tilesVisibleInViewportIterator.next();
-      // if a tile in the same zoom is not in the most recently computed grid, it's not longer "in viewport", remove it
-      if (!mNewlyVisibleTiles.contains(tile)) {
-        tile.destroy();
-        tilesVisibleInViewportIterator.remove();
-      }
-    }
-    // we just removed all tiles outside of the viewport, now add any new ones that are in the viewport that weren't there the last
-    // time we performed this computation
-    // we use add all instead of straight replacement because lets say tile(3:2) was being decoded - when tile(3:2) comes up in
-    // mNewlyVisibleTiles, it won't be added to mTilesVisibleInViewport because Tile.equals will return true
-    // if we just swapped out the set (mTilesVisibleInViewport = mNewlyVisibleTiles), all those tiles would lose their state
-    boolean tilesWereAdded = mTilesVisibleInViewport.addAll(mNewlyVisibleTiles);
-    if (tilesWereAdded) {
-      mExecutor.queue(mTilesVisibleInViewport);
-    }
+    // only tiles entering the window are taken from the pool and queued, and only tiles leaving it are destroyed -
+    // tiles that were already showing (or decoding) are left alone
+    mTileWindow.update(mCurrentDetail, mImageSample, mGrid.columns.start, mGrid.columns.end, mGrid.rows.start, mGrid.rows.end);
   }
 
   @Override
@@ -423,13 +850,44 @@ public class TileView extends ScalingScrollView implements
     // no op for now, probably expose this to the user
   }
 
+  @Override
+  public void onTileChanged(String key, Bitmap bitmap) {
+    // if the tile isn't showing anymore, it may have left the outdated bitmap in the memory cache
+    mMemoryCache.remove(key);
+    for (int i = 0; i < mTileWindow.size(); i++) {
+      Tile tile = mTileWindow.get(i);
+      if (tile.getState() == Tile.State.DECODED && key.equals(tile.getCacheKey())) {
+        tile.replaceBitmap(bitmap);
+        setDirty(tile.getDrawingRect());
+        return;
+      }
+    }
+    if (mTileAtlas != null) {
+      mTileAtlas.remove(key);
+    }
+  }
+
   public void destroy() {
     mExecutor.shutdownNow();
     // TODO:
     // mMemoryCache.clear();
     // mDiskCache.clear();
     mTilePool.clear();
-    mRenderThrottle.removeMessages(RENDER_THROTTLE_ID);
+    Choreographer.getInstance().removeFrameCallback(this);
+    mIsFrameCallbackPosted = false;
+    mHandler.removeCallbacks(mSettledCallback);
+    if (mRevalidator != null) {
+      mRevalidator.shutdown();
+    }
+    if (mMetaTileDecoder != null) {
+      mMetaTileDecoder.clear();
+    }
+    if (mDiskCache != null) {
+      mDiskCache.close();
+    }
+    if (mShouldPersistMissingTiles) {
+      mMissingTileCache.write();
+    }
   }
 
   private boolean isReady() {
@@ -440,9 +898,10 @@ public class TileView extends ScalingScrollView implements
     if (mDetailList.isEmpty()) {
       throw new IllegalStateException("TileView requires at least one defined detail level");
     }
-    if (mTilingBitmapView.getLayoutParams().width == 0 || mTilingBitmapView.getLayoutParams().height == 0) {
+    if (mContainer.mWidth == 0 || mContainer.mHeight == 0) {
       throw new IllegalStateException("TileView requires height and width be provided via Builder.setSize");
     }
+    establishDetailGridSizes();
     mIsPrepared = true;
     attemptOnReady();
   }
@@ -455,7 +914,10 @@ public class TileView extends ScalingScrollView implements
     if (isReady() && !mHasRunOnReady) {
       mHasRunOnReady = true;
       determineCurrentDetail();
+      loadResidentTiles();
       updateViewportAndComputeTiles();
+      // after the window's tiles, so they don't hold up the first screen
+      mTileWindow.queueResidentTiles();
       for (ReadyListener readyListener : mReadyListeners) {
         readyListener.onReady(this);
       }
@@ -465,6 +927,32 @@ public class TileView extends ScalingScrollView implements
     return false;
   }
 
+  // every tile of the coarsest detail level, decoded once and never destroyed, so there's always something to fall back on
+  private void loadResidentTiles() {
+    if (!mShouldKeepCoarsestDetail) {
+      return;
+    }
+    Detail detail = mDetailList.getHighestDefined();
+    if (!detail.hasGridSize() || detail.getColumns() * detail.getRows() > mMaximumResidentTiles) {
+      return;
+    }
+    Tile[] tiles = new Tile[detail.getColumns() * detail.getRows()];
+    for (int row = 0; row < detail.getRows(); row++) {
+      for (int column = 0; column < detail.getColumns(); column++) {
+        Tile tile = createTile();
+        tile.setColumn(column);
+        tile.setRow(row);
+        tile.setDetail(detail);
+        tile.setImageSample(1);
+        tile.updateDestinationRect();
+        tile.setResident(true);
+        tiles[row * detail.getColumns() + column] = tile;
+      }
+    }
+    mTileFallback.setResidentTiles(detail, tiles);
+    mTileWindow.setResidentTiles(detail, tiles);
+  }
+
   private static class Grid {
     Range rows = new Range();
     Range columns = new Range();
@@ -486,6 +974,11 @@ public class TileView extends ScalingScrollView implements
 
   public interface BitmapPool {
     Bitmap getBitmapForReuse(Tile tile);
+    // hands back a bitmap from getBitmapForReuse that ended up unused, e.g., nothing was rendered into it
+    default void recycle(Bitmap bitmap) {}
+    // keeps a bitmap from being handed out for reuse until it's unpinned (as many times), e.g., while another thread draws it
+    default void pin(Bitmap bitmap) {}
+    default void unpin(Bitmap bitmap) {}
   }
 
   public interface Listener {
@@ -511,6 +1004,11 @@ public class TileView extends ScalingScrollView implements
     private int mWidth;
     private int mHeight;
 
+    // the one child that's sized to the viewport rather than the content (it's moved with translation, not layout)
+    private View mViewportView;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
     public FixedSizeViewGroup(Context context) {
       super(context);
     }
@@ -521,11 +1019,26 @@ public class TileView extends ScalingScrollView implements
       requestLayout();
     }
 
+    public void setViewportView(View view) {
+      mViewportView = view;
+      requestLayout();
+    }
+
+    public void setViewportSize(int width, int height) {
+      mViewportWidth = width;
+      mViewportHeight = height;
+      requestLayout();
+    }
+
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
       for (int i = 0; i < getChildCount(); i++) {
         View child = getChildAt(i);
-        child.layout(0, 0, mWidth, mHeight);
+        if (child == mViewportView) {
+          child.layout(0, 0, mViewportWidth, mViewportHeight);
+        } else {
+          child.layout(0, 0, mWidth, mHeight);
+        }
       }
     }
 
@@ -533,7 +1046,16 @@ public class TileView extends ScalingScrollView implements
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
       int childWidthMeasureSpec = MeasureSpec.makeMeasureSpec(mWidth, MeasureSpec.EXACTLY);
       int childHeightMeasureSpec = MeasureSpec.makeMeasureSpec(mHeight, MeasureSpec.EXACTLY);
-      measureChildren(childWidthMeasureSpec, childHeightMeasureSpec);
+      for (int i = 0; i < getChildCount(); i++) {
+        View child = getChildAt(i);
+        if (child == mViewportView) {
+          child.measure(
+              MeasureSpec.makeMeasureSpec(mViewportWidth, MeasureSpec.EXACTLY),
+              MeasureSpec.makeMeasureSpec(mViewportHeight, MeasureSpec.EXACTLY));
+        } else {
+          measureChild(child, childWidthMeasureSpec, childHeightMeasureSpec);
+        }
+      }
       setMeasuredDimension(mWidth, mHeight);
     }
 
@@ -543,12 +1065,20 @@ public class TileView extends ScalingScrollView implements
 
     private TileView mTileView;
     private StreamProvider mStreamProvider;
+    private TileRenderer mTileRenderer;
 
     private Bitmap.Config mConfig = Bitmap.Config.RGB_565;
     private int mTileSize = 256;
     private int mMemoryCacheSize = (int) ((Runtime.getRuntime().maxMemory() / 1024) / 4);
     private int mDiskCacheSize = 1024 * 100;
+    private int mDiskCacheShardCount = DiskCache.DEFAULT_SHARD_COUNT;
     private DiskCachePolicy mDiskCachePolicy = DiskCachePolicy.CACHE_PATCHES;
+    private boolean mShouldPersistMissingTiles;
+    private boolean mShouldAdaptDetail;
+    private boolean mShouldRenderOnSurface;
+    private boolean mShouldUseTileAtlas;
+    private boolean mShouldKeepCoarsestDetail;
+    private boolean mShouldFreezeTilesWhilePinching;
 
     public Builder(TileView tileView) {
       mTileView = tileView;
@@ -572,6 +1102,15 @@ public class TileView extends ScalingScrollView implements
       return this;
     }
 
+    /**
+     * Defines a detail level whose tile grid is known to be columns by rows, so we never request tiles outside of it.
+     * If not provided, the grid size is derived from the size provided to setSize.
+     */
+    public Builder defineZoomLevel(int zoom, Object data, int columns, int rows) {
+      mTileView.defineZoomLevel(new Detail(zoom, data, columns, rows));
+      return this;
+    }
+
     public Builder addListener(TileView.Listener listener) {
       mTileView.addListener(listener);
       return this;
@@ -612,16 +1151,88 @@ public class TileView extends ScalingScrollView implements
       return this;
     }
 
+    /**
+     * Keeps decoded tiles in a few large bitmaps divided into tile sized slots (see TileAtlas), rather than a bitmap per
+     * tile.  The atlas takes three quarters of the memory cache size, allocated up front, and the memory cache the rest.
+     */
+    public Builder setShouldUseTileAtlas(boolean shouldUseTileAtlas) {
+      mShouldUseTileAtlas = shouldUseTileAtlas;
+      return this;
+    }
+
+    /**
+     * Decodes every tile of the coarsest detail level up front and keeps them, so there's always something to draw while
+     * other tiles decode.  Only done if that level fits in a quarter of the memory cache size, which it's taken from.
+     */
+    public Builder setShouldKeepCoarsestDetail(boolean shouldKeepCoarsestDetail) {
+      mShouldKeepCoarsestDetail = shouldKeepCoarsestDetail;
+      return this;
+    }
+
+    /**
+     * If true, a pinch just scales the tiles that were showing when it began - no tiles are requested, and the zoom level
+     * doesn't change, until it ends.  Nothing's decoded for the levels passed through, but zooming out past the frozen
+     * tiles shows the background until the pinch ends.
+     */
+    public Builder setShouldFreezeTilesWhilePinching(boolean shouldFreezeTilesWhilePinching) {
+      mShouldFreezeTilesWhilePinching = shouldFreezeTilesWhilePinching;
+      return this;
+    }
+
     public Builder setDiskCacheSize(int diskCacheSize) {
       mDiskCacheSize = diskCacheSize;
       return this;
     }
 
+    public Builder setDiskCacheShardCount(int diskCacheShardCount) {
+      mDiskCacheShardCount = diskCacheShardCount;
+      return this;
+    }
+
+    /**
+     * If true, tiles that were found to be missing are remembered between sessions, not just for this one.
+     */
+    public Builder setShouldPersistMissingTiles(boolean shouldPersistMissingTiles) {
+      mShouldPersistMissingTiles = shouldPersistMissingTiles;
+      return this;
+    }
+
+    /**
+     * If true, when tiles can't be rendered as fast as they're needed (e.g., on a slow connection), the next coarser
+     * detail level is drawn scaled up until the viewport settles, then the exact level replaces it.
+     */
+    public Builder setShouldAdaptDetail(boolean shouldAdaptDetail) {
+      mShouldAdaptDetail = shouldAdaptDetail;
+      return this;
+    }
+
+    /**
+     * Draws tiles into a SurfaceView on a dedicated render thread, rather than in a View on the UI thread.  The UI thread
+     * only snapshots what to draw, once a frame.
+     *
+     * The surface is opaque, so plugin views added beneath the tiles won't show, and CanvasDecorators are called on the
+     * render thread.  The surface doesn't scroll with the TileView (only what it draws does) - once the TileView is attached,
+     * it's put in a FrameLayout that takes its place in its parent (and its layout params), with the surface behind it, so
+     * the TileView itself shouldn't have an opaque background.
+     */
+    public Builder setShouldRenderOnSurface(boolean shouldRenderOnSurface) {
+      mShouldRenderOnSurface = shouldRenderOnSurface;
+      return this;
+    }
+
     public Builder setStreamProvider(StreamProvider streamProvider) {
       mStreamProvider = streamProvider;
       return this;
     }
 
+    /**
+     * Draws tiles with a TileRenderer instead of decoding them from a StreamProvider; if set, the StreamProvider isn't used.
+     */
+    public Builder setTileRenderer(TileRenderer tileRenderer) {
+      mTileRenderer = tileRenderer;
+      return this;
+    }
+
     public Builder installPlugin(Plugin plugin) {
       mTileView.mPlugins.put(plugin.getClass(), plugin);
       plugin.install(mTileView);
@@ -642,18 +1253,53 @@ public class TileView extends ScalingScrollView implements
       mTileView.mBitmapConfig = mConfig;
       // if the user provided a custom provider, use that, otherwise default to assets
       mTileView.mStreamProvider = getStreamProvider();
+      mTileView.mTileRenderer = mTileRenderer;
+      // tiles from meta-tiles share one fetch and one region decoder per block
+      if (mTileView.mStreamProvider instanceof MetaTileStreamProvider) {
+        mTileView.mMetaTileDecoder = new MetaTileDecoder((MetaTileStreamProvider) mTileView.mStreamProvider, mTileSize);
+      }
       // use memory cache instance for both memory cache and bitmap pool.  maybe allows these to be set in the future
-      MemoryCache memoryCache = new MemoryCache(mMemoryCacheSize);
+      // the atlas is the memory cache for every tile it has room for, and hands out the bitmaps tiles are decoded into -
+      // it takes most of the budget, the rest holds tiles that didn't get a slot
+      int memoryCacheSize = mShouldUseTileAtlas ? mMemoryCacheSize / 4 : mMemoryCacheSize;
+      // resident tiles hold atlas slots, but without the atlas their bitmaps come out of the memory cache's share
+      int residentBudget = mShouldKeepCoarsestDetail ? mMemoryCacheSize / RESIDENT_BUDGET_DIVISOR : 0;
+      if (!mShouldUseTileAtlas) {
+        memoryCacheSize -= residentBudget;
+      }
+      MemoryCache memoryCache = new MemoryCache(memoryCacheSize);
       mTileView.mMemoryCache = memoryCache;
       mTileView.mBitmapPool = memoryCache;
+      if (mShouldUseTileAtlas) {
+        mTileView.mTileAtlas = new TileAtlas(mTileSize, mConfig, (mMemoryCacheSize - memoryCacheSize) * 1024L);
+        mTileView.mBitmapPool = mTileView.mTileAtlas;
+        mTileView.mMaximumResidentTiles = mTileView.mTileAtlas.getSlotCount() / RESIDENT_BUDGET_DIVISOR;
+      } else {
+        mTileView.mMaximumResidentTiles = (int) (residentBudget * 1024L / ((long) mTileSize * mTileSize * TileAtlas.getBytesPerPixel(mConfig)));
+      }
+      mTileView.mTileFallback = new TileFallback(mTileSize, mTileView.mDetailList, memoryCache, mTileView.mBitmapPool, mTileView.mTileAtlas);
+      mTileView.mShouldKeepCoarsestDetail = mShouldKeepCoarsestDetail;
+      mTileView.mShouldFreezeTilesWhilePinching = mShouldFreezeTilesWhilePinching;
       mTileView.mDiskCachePolicy = mDiskCachePolicy;
-      // if the policy is to cache something and the size is not 0, try to create a disk cache
+      mTileView.mMissingTileCache = new MissingTileCache(mTileView.getContext());
+      mTileView.mShouldPersistMissingTiles = mShouldPersistMissingTiles;
+      mTileView.mShouldAdaptDetail = mShouldAdaptDetail;
+      if (mShouldRenderOnSurface) {
+        mTileView.renderOnSurface();
+      }
+      if (mShouldPersistMissingTiles) {
+        mTileView.mMissingTileCache.readAsync();
+      }
+      // if the policy is to cache something and the size is not 0, create a disk cache
+      // opening replays the journals, which can take a while on a large cache, so don't hold up the first frame for it
+      // until it's open it just reports misses, so tiles decode from the memory cache or stream provider in the meantime
       if (mDiskCachePolicy != DiskCachePolicy.CACHE_NONE && mDiskCacheSize > 0) {
-        try {
-          // TODO: async?
-          mTileView.mDiskCache = new DiskCache(mTileView.getContext(), mDiskCacheSize);
-        } catch (IOException e) {
-          // no op
+        mTileView.mDiskCache = new DiskCache(mTileView.getContext(), mDiskCacheSize, mDiskCacheShardCount);
+        mTileView.mDiskCache.openAsync();
+        // remote tiles that can tell us when they go stale are kept current, rather than served from disk forever
+        if (mDiskCachePolicy == DiskCachePolicy.CACHE_ALL && mTileView.mStreamProvider instanceof RevalidatingStreamProvider) {
+          RevalidatingStreamProvider streamProvider = (RevalidatingStreamProvider) mTileView.mStreamProvider;
+          mTileView.mRevalidator = new TileRevalidator(mTileView.getContext(), streamProvider, mTileView.mDiskCache, mConfig, mTileView);
         }
       }
       mTileView.prepare();
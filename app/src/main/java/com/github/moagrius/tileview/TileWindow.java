@@ -0,0 +1,240 @@
+package com.github.moagrius.tileview;
+
+/**
+ * The tiles of the current detail level that intersect the viewport, kept as a window over that level's grid.
+ *
+ * Tiles live in a fixed size array indexed by grid position (wrapping around, like a ring buffer in both directions), so
+ * when the viewport moves, only the rows and columns leaving and entering the window are touched: tiles that stay
+ * visible stay where they are, leaving tiles are destroyed (back to the pool), and entering tiles are taken from the pool
+ * and queued.  Scrolling within the same cells does no work and allocates nothing.
+ *
+ * Window bounds are in cells - tiles at the current image sample - so a cell's tile is at column * sample, row * sample.
+ */
+class TileWindow {
+
+  // grow a little past what's needed, so the window changing size by a cell doesn't mean another copy
+  private static final int SLOT_HEADROOM = 2;
+
+  private final TilePool mTilePool;
+  private final TileRenderExecutor mExecutor;
+
+  private Tile[] mSlots = new Tile[0];
+  private int mSlotColumns;
+  private int mSlotRows;
+
+  // end exclusive
+  private int mColumnStart;
+  private int mColumnEnd;
+  private int mRowStart;
+  private int mRowEnd;
+  private Detail mDetail;
+  private int mImageSample = 1;
+
+  private Detail mResidentDetail;
+  private Tile[] mResidentTiles;
+  private boolean mAreResidentTilesQueued;
+
+  TileWindow(TilePool tilePool, TileRenderExecutor executor) {
+    mTilePool = tilePool;
+    mExecutor = executor;
+  }
+
+  /**
+   * @return The number of tiles in the window.
+   */
+  int size() {
+    return (mColumnEnd - mColumnStart) * (mRowEnd - mRowStart);
+  }
+
+  int getColumnStart() {
+    return mColumnStart;
+  }
+
+  int getRowStart() {
+    return mRowStart;
+  }
+
+  int getColumns() {
+    return mColumnEnd - mColumnStart;
+  }
+
+  int getRows() {
+    return mRowEnd - mRowStart;
+  }
+
+  Detail getDetail() {
+    return mDetail;
+  }
+
+  int getImageSample() {
+    return mImageSample;
+  }
+
+  /**
+   * Cells of detail at full size are filled with these tiles, rather than new tiles for the same positions.  Resident
+   * tiles aren't destroyed when they leave the window.
+   *
+   * @param tiles Every tile of detail, row by row, not queued yet - see queueResidentTiles.
+   */
+  void setResidentTiles(Detail detail, Tile[] tiles) {
+    mResidentDetail = detail;
+    mResidentTiles = tiles;
+    mAreResidentTilesQueued = false;
+  }
+
+  /**
+   * Queues the resident tiles the window doesn't hold (those it does were queued with it), once the window's tiles are
+   * queued, so they don't hold up what's on screen.
+   */
+  void queueResidentTiles() {
+    if (mResidentTiles == null || mAreResidentTilesQueued) {
+      return;
+    }
+    mAreResidentTilesQueued = true;
+    for (Tile tile : mResidentTiles) {
+      if (!holds(tile)) {
+        mExecutor.queue(tile);
+      }
+    }
+  }
+
+  /**
+   * Tiles are indexed row by row from the window's top left cell.
+   *
+   * For allocation free iteration: for (int i = 0; i < window.size(); i++) { Tile tile = window.get(i); }
+   */
+  Tile get(int index) {
+    int columns = mColumnEnd - mColumnStart;
+    return mSlots[getSlot(mColumnStart + index % columns, mRowStart + index / columns)];
+  }
+
+  /**
+   * Moves the window to cover tiles [columnStart, columnEnd) x [rowStart, rowEnd) of detail at imageSample.
+   * Tile bounds should be aligned to imageSample (the end may be short, at the edge of the grid).
+   */
+  void update(Detail detail, int imageSample, int columnStart, int columnEnd, int rowStart, int rowEnd) {
+    // a different detail or sample means entirely different tiles
+    if (detail != mDetail || imageSample != mImageSample) {
+      clear(true);
+      mDetail = detail;
+      mImageSample = imageSample;
+    }
+    int newColumnStart = columnStart / imageSample;
+    int newColumnEnd = Math.max(newColumnStart, (columnEnd + imageSample - 1) / imageSample);
+    int newRowStart = rowStart / imageSample;
+    int newRowEnd = Math.max(newRowStart, (rowEnd + imageSample - 1) / imageSample);
+    if (newColumnEnd - newColumnStart > mSlotColumns || newRowEnd - newRowStart > mSlotRows) {
+      grow(newColumnEnd - newColumnStart, newRowEnd - newRowStart);
+    }
+    // leaving - destroy before adding, since an entering tile may wrap around to a leaving tile's slot
+    for (int row = mRowStart; row < mRowEnd; row++) {
+      if (row < newRowStart || row >= newRowEnd) {
+        destroyRange(row, mColumnStart, mColumnEnd);
+      } else {
+        destroyRange(row, mColumnStart, Math.min(mColumnEnd, newColumnStart));
+        destroyRange(row, Math.max(mColumnStart, newColumnEnd), mColumnEnd);
+      }
+    }
+    // entering
+    for (int row = newRowStart; row < newRowEnd; row++) {
+      if (row < mRowStart || row >= mRowEnd) {
+        createRange(row, newColumnStart, newColumnEnd);
+      } else {
+        createRange(row, newColumnStart, Math.min(newColumnEnd, mColumnStart));
+        createRange(row, Math.max(newColumnStart, mColumnEnd), newColumnEnd);
+      }
+    }
+    mColumnStart = newColumnStart;
+    mColumnEnd = newColumnEnd;
+    mRowStart = newRowStart;
+    mRowEnd = newRowEnd;
+  }
+
+  /**
+   * Empties the window.
+   *
+   * @param shouldDestroy False if the tiles are being handed off elsewhere (e.g., kept on screen while the next zoom
+   *                      level decodes), true to destroy them.
+   */
+  void clear(boolean shouldDestroy) {
+    for (int row = mRowStart; row < mRowEnd; row++) {
+      for (int column = mColumnStart; column < mColumnEnd; column++) {
+        int slot = getSlot(column, row);
+        Tile tile = mSlots[slot];
+        mSlots[slot] = null;
+        if (shouldDestroy && tile != null) {
+          tile.destroy();
+        }
+      }
+    }
+    mColumnStart = mColumnEnd = mRowStart = mRowEnd = 0;
+  }
+
+  private int getSlot(int column, int row) {
+    return (row % mSlotRows) * mSlotColumns + column % mSlotColumns;
+  }
+
+  private void destroyRange(int row, int columnStart, int columnEnd) {
+    for (int column = columnStart; column < columnEnd; column++) {
+      int slot = getSlot(column, row);
+      Tile tile = mSlots[slot];
+      mSlots[slot] = null;
+      if (tile != null) {
+        tile.destroy();
+      }
+    }
+  }
+
+  private void createRange(int row, int columnStart, int columnEnd) {
+    for (int column = columnStart; column < columnEnd; column++) {
+      Tile tile = getResidentTile(column, row);
+      if (tile == null) {
+        tile = mTilePool.get();
+        tile.setColumn(column * mImageSample);
+        tile.setRow(row * mImageSample);
+        tile.setDetail(mDetail);
+        tile.setImageSample(mImageSample);
+        tile.updateDestinationRect();
+        mExecutor.queue(tile);
+      } else if (!mAreResidentTilesQueued) {
+        mExecutor.queue(tile);
+      }
+      mSlots[getSlot(column, row)] = tile;
+    }
+  }
+
+  // a resident tile that failed won't be retried, so it's replaced by one that will be
+  private Tile getResidentTile(int column, int row) {
+    if (mDetail != mResidentDetail || mImageSample != 1 || !mDetail.contains(column, row)) {
+      return null;
+    }
+    Tile tile = mResidentTiles[row * mDetail.getColumns() + column];
+    return tile.getState() == Tile.State.FAILED ? null : tile;
+  }
+
+  private boolean holds(Tile tile) {
+    if (tile.getDetail() != mDetail || tile.getImageSample() != mImageSample) {
+      return false;
+    }
+    int column = tile.getColumn() / mImageSample;
+    int row = tile.getRow() / mImageSample;
+    return column >= mColumnStart && column < mColumnEnd && row >= mRowStart && row < mRowEnd
+        && mSlots[getSlot(column, row)] == tile;
+  }
+
+  // slot positions depend on the slot dimensions, so every tile has to move
+  private void grow(int columns, int rows) {
+    Tile[] previous = mSlots;
+    int previousColumns = mSlotColumns;
+    int previousRows = mSlotRows;
+    mSlotColumns = Math.max(mSlotColumns, columns + SLOT_HEADROOM);
+    mSlotRows = Math.max(mSlotRows, rows + SLOT_HEADROOM);
+    mSlots = new Tile[mSlotColumns * mSlotRows];
+    for (int row = mRowStart; row < mRowEnd; row++) {
+      for (int column = mColumnStart; column < mColumnEnd; column++) {
+        mSlots[getSlot(column, row)] = previous[(row % previousRows) * previousColumns + column % previousColumns];
+      }
+    }
+  }
+
+}
@@ -2,37 +2,86 @@ package com.github.moagrius.tileview;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.view.View;
 
+/**
+ * Draws the tiles under the viewport.  It's only as big as the viewport, and is kept over it (by translation) as the
+ * provider scrolls, so the canvas is translated by the scroll position before the tiles are drawn in content space.
+ */
 public class TilingBitmapView extends View {
 
   private Provider mProvider;
-  private boolean mIsDirty;
+
+  // unscaled, accumulated from any thread until the next frame - guarded by itself
+  private final Rect mDirtyRect = new Rect();
+  private boolean mIsInvalidatePosted;
+  private final Rect mInvalidRect = new Rect();
+  private final Runnable mInvalidateCallback = this::invalidateDirtyRect;
 
   public TilingBitmapView(Provider provider) {
     super(provider.getContext());
     mProvider = provider;
   }
 
-  public void setDirty() {
-    if (mIsDirty) {
-      return;
+  /**
+   * Marks an area as needing to be redrawn, e.g., where a tile was just decoded.  Safe to call from any thread.
+   *
+   * However many areas are marked, the view is invalidated at most once a frame, for the union of them.
+   *
+   * @param rect The area, in unscaled pixels.
+   */
+  public void setDirty(Rect rect) {
+    synchronized (mDirtyRect) {
+      mDirtyRect.union(rect);
+      if (mIsInvalidatePosted) {
+        return;
+      }
+      mIsInvalidatePosted = true;
+    }
+    postOnAnimation(mInvalidateCallback);
+  }
+
+  private void invalidateDirtyRect() {
+    synchronized (mDirtyRect) {
+      mInvalidRect.set(mDirtyRect);
+      mDirtyRect.setEmpty();
+      mIsInvalidatePosted = false;
     }
-    mIsDirty = true;
-    postInvalidate();
+    invalidateContent(mInvalidRect);
+  }
+
+  /**
+   * Like setDirty, but invalidates right away rather than on the next frame - UI thread only, e.g., from a frame callback
+   * that runs before this frame is drawn.
+   *
+   * @param rect The area, in unscaled pixels.
+   */
+  public void invalidateContent(Rect rect) {
+    float scale = mProvider.getScale();
+    int scrollX = mProvider.getScrollX();
+    int scrollY = mProvider.getScrollY();
+    invalidate(
+        (int) Math.floor(rect.left * scale) - scrollX,
+        (int) Math.floor(rect.top * scale) - scrollY,
+        (int) Math.ceil(rect.right * scale) - scrollX,
+        (int) Math.ceil(rect.bottom * scale) - scrollY
+    );
   }
 
   @Override
   protected void onDraw(Canvas canvas) {
     canvas.save();
+    canvas.translate(-mProvider.getScrollX(), -mProvider.getScrollY());
     canvas.scale(mProvider.getScale(), mProvider.getScale());
     mProvider.drawTiles(canvas);
     canvas.restore();
-    mIsDirty = false;
   }
 
   public interface Provider {
     Context getContext();
+    int getScrollX();
+    int getScrollY();
     float getScale();
     void drawTiles(Canvas canvas);
   }
@@ -0,0 +1,317 @@
+package com.github.moagrius.tileview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * An alternative to TilingBitmapView that draws tiles into a SurfaceView, on its own thread.
+ *
+ * The UI thread only decides what should be drawn: once a frame (at most), it takes a Frame - the bitmaps to draw
+ * (pinned, so they aren't reused until the frame's drawn) and where, the scroll position and the scale - and hands it to
+ * the render thread, which does the drawing (tile blits and canvas decorators) with the surface's software canvas.
+ * Frames are double buffered, so the UI thread never waits on the render thread; if it's behind, the frame it hasn't
+ * started yet is just replaced with a newer one.
+ *
+ * Unlike TilingBitmapView, it isn't moved as the provider scrolls - it's sized to the viewport and stays put (outside the
+ * scrolled content), and the scroll position is applied to what it draws, in the same frame.
+ */
+public class TilingSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+  private static final String THREAD_NAME = "tileview-render";
+
+  private Provider mProvider;
+  private int mBackgroundColor = Color.BLACK;
+
+  // guarded by mLock
+  private final Object mLock = new Object();
+  private Frame mPendingFrame;
+  private Frame mFreeFrame = new Frame();
+  private RenderThread mRenderThread;
+  // guarded by itself - requests can come from any thread, frames are only taken on the UI thread
+  private final Object mRequestLock = new Object();
+  private boolean mIsFramePosted;
+  private final Runnable mFrameCallback = this::takeFrame;
+
+  public TilingSurfaceView(Provider provider) {
+    super(provider.getContext());
+    mProvider = provider;
+    getHolder().addCallback(this);
+  }
+
+  /**
+   * @param color What's drawn under the tiles (the surface is opaque).
+   */
+  public void setSurfaceBackgroundColor(int color) {
+    mBackgroundColor = color;
+    requestRender();
+  }
+
+  /**
+   * Asks for a new frame, e.g., when the viewport moved or a tile was decoded.  Safe to call from any thread.
+   *
+   * However many times it's called, a frame is taken at most once per display frame.
+   */
+  public void requestRender() {
+    synchronized (mRequestLock) {
+      if (mIsFramePosted) {
+        return;
+      }
+      mIsFramePosted = true;
+    }
+    postOnAnimation(mFrameCallback);
+  }
+
+  // ui thread
+  private void takeFrame() {
+    synchronized (mRequestLock) {
+      mIsFramePosted = false;
+    }
+    Frame frame;
+    synchronized (mLock) {
+      if (mRenderThread == null) {
+        return;
+      }
+      // if the render thread hasn't gotten to the last frame yet, it's stale - overwrite it
+      frame = mPendingFrame != null ? mPendingFrame : mFreeFrame;
+      mPendingFrame = null;
+      mFreeFrame = null;
+    }
+    // the render thread is done with it (or never started it), so what it drew can be reused
+    frame.unpin(mProvider);
+    frame.reset(mBackgroundColor);
+    mProvider.populateFrame(frame);
+    synchronized (mLock) {
+      mPendingFrame = frame;
+      mLock.notify();
+    }
+  }
+
+  @Override
+  public void surfaceCreated(SurfaceHolder holder) {
+    synchronized (mLock) {
+      mRenderThread = new RenderThread(holder);
+      mRenderThread.start();
+    }
+    requestRender();
+  }
+
+  @Override
+  public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+    requestRender();
+  }
+
+  @Override
+  public void surfaceDestroyed(SurfaceHolder holder) {
+    RenderThread renderThread;
+    synchronized (mLock) {
+      renderThread = mRenderThread;
+      mRenderThread = null;
+      mLock.notify();
+    }
+    // the surface is gone once this returns, so the render thread has to be done with it
+    if (renderThread != null) {
+      try {
+        renderThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      // no frame gets drawn until there's a new surface, so don't keep anything pinned until then
+      renderThread.mFrame.unpin(mProvider);
+      synchronized (mLock) {
+        if (mFreeFrame != null) {
+          mFreeFrame.unpin(mProvider);
+        }
+        // what it would draw may be reused now, so a new surface's render thread mustn't draw it - it's a free frame now
+        if (mPendingFrame != null) {
+          mPendingFrame.unpin(mProvider);
+          if (mFreeFrame == null) {
+            mFreeFrame = mPendingFrame;
+          }
+          mPendingFrame = null;
+        }
+      }
+    }
+  }
+
+  private class RenderThread extends Thread {
+
+    private final SurfaceHolder mSurfaceHolder;
+    // the spare frame, so there are always two: the one being drawn and the one the UI thread fills
+    private Frame mFrame = new Frame();
+
+    RenderThread(SurfaceHolder surfaceHolder) {
+      super(THREAD_NAME);
+      mSurfaceHolder = surfaceHolder;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        synchronized (mLock) {
+          while (mRenderThread == this && mPendingFrame == null) {
+            try {
+              mLock.wait();
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+          if (mRenderThread != this) {
+            return;
+          }
+          // the one we drew last goes back to the UI thread
+          if (mFreeFrame == null) {
+            mFreeFrame = mFrame;
+          }
+          mFrame = mPendingFrame;
+          mPendingFrame = null;
+        }
+        Canvas canvas = mSurfaceHolder.lockCanvas();
+        if (canvas == null) {
+          continue;
+        }
+        try {
+          mFrame.draw(canvas);
+        } finally {
+          mSurfaceHolder.unlockCanvasAndPost(canvas);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * What to draw, filled by the Provider on the UI thread.  Positions are copied in, so it's safe for the UI thread to keep
+   * changing its tiles while the render thread draws, but bitmaps are drawn in place - the Provider pins what a frame
+   * draws (see addPin) so it isn't reused or overwritten, and it's unpinned once the render thread is done with the frame.
+   */
+  public static class Frame {
+
+    private int mBackgroundColor;
+    private int mScrollX;
+    private int mScrollY;
+    private float mScale = 1f;
+    private int mTileCount;
+    private Bitmap[] mBitmaps = new Bitmap[0];
+    private Rect[] mSources = new Rect[0];
+    private boolean[] mHasSources = new boolean[0];
+    private Rect[] mRects = new Rect[0];
+    private int mDecoratorCount;
+    private TileView.CanvasDecorator[] mDecorators = new TileView.CanvasDecorator[0];
+    private int mPinCount;
+    private Object[] mPins = new Object[0];
+
+    void reset(int backgroundColor) {
+      mBackgroundColor = backgroundColor;
+      for (int i = 0; i < mTileCount; i++) {
+        mBitmaps[i] = null;
+      }
+      for (int i = 0; i < mDecoratorCount; i++) {
+        mDecorators[i] = null;
+      }
+      mTileCount = 0;
+      mDecoratorCount = 0;
+    }
+
+    public void setViewport(int scrollX, int scrollY, float scale) {
+      mScrollX = scrollX;
+      mScrollY = scrollY;
+      mScale = scale;
+    }
+
+    /**
+     * @param source The part of the bitmap to draw, or null for all of it.
+     * @param rect Where to draw the bitmap, in unscaled pixels.
+     */
+    public void addTile(Bitmap bitmap, Rect source, Rect rect) {
+      if (mTileCount == mBitmaps.length) {
+        int capacity = Math.max(16, mTileCount * 2);
+        Bitmap[] bitmaps = new Bitmap[capacity];
+        Rect[] sources = new Rect[capacity];
+        boolean[] hasSources = new boolean[capacity];
+        Rect[] rects = new Rect[capacity];
+        System.arraycopy(mBitmaps, 0, bitmaps, 0, mTileCount);
+        System.arraycopy(mSources, 0, sources, 0, mTileCount);
+        System.arraycopy(mHasSources, 0, hasSources, 0, mTileCount);
+        System.arraycopy(mRects, 0, rects, 0, mTileCount);
+        for (int i = mTileCount; i < capacity; i++) {
+          sources[i] = new Rect();
+          rects[i] = new Rect();
+        }
+        mBitmaps = bitmaps;
+        mSources = sources;
+        mHasSources = hasSources;
+        mRects = rects;
+      }
+      mBitmaps[mTileCount] = bitmap;
+      mHasSources[mTileCount] = source != null;
+      if (source != null) {
+        mSources[mTileCount].set(source);
+      }
+      mRects[mTileCount].set(rect);
+      mTileCount++;
+    }
+
+    /**
+     * @param pin Something the Provider pinned for this frame, handed back to Provider.unpin once the render thread is done
+     *            with the frame.
+     */
+    public void addPin(Object pin) {
+      if (mPinCount == mPins.length) {
+        Object[] pins = new Object[Math.max(16, mPinCount * 2)];
+        System.arraycopy(mPins, 0, pins, 0, mPinCount);
+        mPins = pins;
+      }
+      mPins[mPinCount++] = pin;
+    }
+
+    // ui thread
+    void unpin(Provider provider) {
+      for (int i = 0; i < mPinCount; i++) {
+        provider.unpin(mPins[i]);
+        mPins[i] = null;
+      }
+      mPinCount = 0;
+    }
+
+    /**
+     * Decorators added to a frame are called on the render thread.
+     */
+    public void addDecorator(TileView.CanvasDecorator decorator) {
+      if (mDecoratorCount == mDecorators.length) {
+        TileView.CanvasDecorator[] decorators = new TileView.CanvasDecorator[Math.max(4, mDecoratorCount * 2)];
+        System.arraycopy(mDecorators, 0, decorators, 0, mDecoratorCount);
+        mDecorators = decorators;
+      }
+      mDecorators[mDecoratorCount++] = decorator;
+    }
+
+    // render thread
+    void draw(Canvas canvas) {
+      canvas.drawColor(mBackgroundColor);
+      canvas.save();
+      canvas.translate(-mScrollX, -mScrollY);
+      canvas.scale(mScale, mScale);
+      for (int i = 0; i < mTileCount; i++) {
+        canvas.drawBitmap(mBitmaps[i], mHasSources[i] ? mSources[i] : null, mRects[i], null);
+      }
+      for (int i = 0; i < mDecoratorCount; i++) {
+        mDecorators[i].decorate(canvas);
+      }
+      canvas.restore();
+    }
+
+  }
+
+  public interface Provider {
+    Context getContext();
+    void populateFrame(Frame frame);
+    void unpin(Object pin);
+  }
+
+}
@@ -0,0 +1,24 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+
+import java.io.InputStream;
+
+/**
+ * A StreamProvider that can fetch a square block of tiles at once, e.g., with a single query.
+ *
+ * Used when patching (composing one tile from span x span tiles of a higher detail level).
+ */
+public interface BatchStreamProvider extends StreamProvider {
+
+  /**
+   * Calls the receiver once for each tile in [column, column + span) x [row, row + span) that exists, in any order.
+   * Each stream is only valid until the receiver returns.
+   */
+  void getStreams(int column, int row, int span, Context context, Object data, Receiver receiver) throws Exception;
+
+  interface Receiver {
+    void onStream(int column, int row, InputStream stream) throws Exception;
+  }
+
+}
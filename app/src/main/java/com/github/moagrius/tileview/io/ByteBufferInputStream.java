@@ -0,0 +1,69 @@
+package com.github.moagrius.tileview.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream that reads straight out of a ByteBuffer (e.g., a slice of a memory mapped file), without copying it.
+ *
+ * Supports mark and reset, which Tile relies on to measure and then decode the same stream.
+ */
+public class ByteBufferInputStream extends InputStream {
+
+  private final ByteBuffer mBuffer;
+  private int mMark;
+
+  public ByteBufferInputStream(ByteBuffer buffer) {
+    mBuffer = buffer;
+    mMark = buffer.position();
+  }
+
+  @Override
+  public int read() {
+    if (!mBuffer.hasRemaining()) {
+      return -1;
+    }
+    return mBuffer.get() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+    if (!mBuffer.hasRemaining()) {
+      return -1;
+    }
+    length = Math.min(length, mBuffer.remaining());
+    mBuffer.get(bytes, offset, length);
+    return length;
+  }
+
+  @Override
+  public long skip(long count) {
+    int skipped = (int) Math.max(0, Math.min(count, mBuffer.remaining()));
+    mBuffer.position(mBuffer.position() + skipped);
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return mBuffer.remaining();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark(int readLimit) {
+    mMark = mBuffer.position();
+  }
+
+  @Override
+  public synchronized void reset() {
+    mBuffer.position(mMark);
+  }
+
+}
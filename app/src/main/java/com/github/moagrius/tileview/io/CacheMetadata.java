@@ -0,0 +1,78 @@
+package com.github.moagrius.tileview.io;
+
+/**
+ * What we need to know to decide whether a cached tile is still good, and to ask the source cheaply if it isn't:
+ * when it expires, and the validators (an entity tag and/or a last modified date) to send with a conditional request.
+ *
+ * Stored alongside the tile in the disk cache.
+ */
+public class CacheMetadata {
+
+  private static final char SEPARATOR = '\n';
+
+  private final String mEntityTag;
+  private final String mLastModified;
+  private final long mExpires;
+
+  /**
+   * @param entityTag The ETag, exactly as received, or null.
+   * @param lastModified The Last-Modified date, exactly as received, or null.
+   * @param expires When the tile becomes stale, in milliseconds since the epoch.
+   */
+  public CacheMetadata(String entityTag, String lastModified, long expires) {
+    mEntityTag = entityTag;
+    mLastModified = lastModified;
+    mExpires = expires;
+  }
+
+  public String getEntityTag() {
+    return mEntityTag;
+  }
+
+  public String getLastModified() {
+    return mLastModified;
+  }
+
+  public long getExpires() {
+    return mExpires;
+  }
+
+  public boolean isStale() {
+    return System.currentTimeMillis() >= mExpires;
+  }
+
+  /**
+   * @return True if there's something to send with a conditional request; if not, revalidating means downloading it again.
+   */
+  public boolean hasValidators() {
+    return mEntityTag != null || mLastModified != null;
+  }
+
+  // header values can't contain line breaks, so one per line is safe
+  public String encode() {
+    return mExpires + "" + SEPARATOR + (mEntityTag == null ? "" : mEntityTag) + SEPARATOR + (mLastModified == null ? "" : mLastModified);
+  }
+
+  /**
+   * @return The metadata encoded by encode, or null if there isn't any (or it's unreadable).
+   */
+  public static CacheMetadata decode(String encoded) {
+    if (encoded == null || encoded.isEmpty()) {
+      return null;
+    }
+    int first = encoded.indexOf(SEPARATOR);
+    int second = encoded.indexOf(SEPARATOR, first + 1);
+    if (first == -1 || second == -1) {
+      return null;
+    }
+    try {
+      long expires = Long.parseLong(encoded.substring(0, first));
+      String entityTag = encoded.substring(first + 1, second);
+      String lastModified = encoded.substring(second + 1);
+      return new CacheMetadata(entityTag.isEmpty() ? null : entityTag, lastModified.isEmpty() ? null : lastModified, expires);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+}
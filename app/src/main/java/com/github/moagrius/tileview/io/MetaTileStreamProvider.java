@@ -0,0 +1,80 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * A StreamProvider that fetches tiles in square blocks ("meta-tiles") of size x size tiles, as a single image, e.g.,
+ * from a tile server that renders meta-tiles, so filling a viewport takes a handful of requests rather than one per tile.
+ *
+ * Each block is fetched and opened once, and every tile in it is decoded from its region.  Blocks are expected to be
+ * size * tileSize square, with edge blocks padded the same way edge tiles are.
+ *
+ * TileView reads tiles from a MetaTileStreamProvider only through getMetaTileStream, and shares each block between its
+ * tiles.  Anything else that treats it as a plain StreamProvider (e.g., a StreamProviderChain) gets single tiles from
+ * getStream, which fetches the whole block for each one - correct, but much slower.
+ */
+public interface MetaTileStreamProvider extends StreamProvider {
+
+  /**
+   * @return The number of tiles along each side of a meta-tile.
+   */
+  int getMetaTileSize();
+
+  /**
+   * @param metaColumn The meta-tile's column, so it holds tile columns [metaColumn * size, (metaColumn + 1) * size).
+   * @param metaRow The meta-tile's row, so it holds tile rows [metaRow * size, (metaRow + 1) * size).
+   * @return The meta-tile image; throw FileNotFoundException if it doesn't exist.
+   */
+  InputStream getMetaTileStream(int metaColumn, int metaRow, Context context, Object data) throws Exception;
+
+  /**
+   * @return The size of a tile in a meta-tile, in pixels - only used by getStream.
+   */
+  default int getTileSize() {
+    return 256;
+  }
+
+  /**
+   * Fetches the tile's meta-tile and re-encodes just the tile's region (as PNG, so nothing's lost).
+   */
+  @Override
+  default InputStream getStream(int column, int row, Context context, Object data) throws Exception {
+    int size = getMetaTileSize();
+    int tileSize = getTileSize();
+    int metaColumn = column / size;
+    int metaRow = row / size;
+    BitmapRegionDecoder decoder;
+    InputStream stream = getMetaTileStream(metaColumn, metaRow, context, data);
+    try {
+      decoder = BitmapRegionDecoder.newInstance(stream, false);
+    } finally {
+      stream.close();
+    }
+    try {
+      int left = (column - metaColumn * size) * tileSize;
+      int top = (row - metaRow * size) * tileSize;
+      Rect region = new Rect(left, top, left + tileSize, top + tileSize);
+      // an unpadded edge block may not reach this tile at all, in which case it doesn't exist
+      if (!region.intersect(0, 0, decoder.getWidth(), decoder.getHeight())) {
+        throw new FileNotFoundException("No tile at " + column + ", " + row + " in its meta-tile");
+      }
+      Bitmap bitmap = decoder.decodeRegion(region, null);
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      bitmap.compress(Bitmap.CompressFormat.PNG, 100, outputStream);
+      bitmap.recycle();
+      // resettable, so the tile can be measured before it's decoded
+      return new ByteArrayInputStream(outputStream.toByteArray());
+    } finally {
+      decoder.recycle();
+    }
+  }
+
+}
@@ -0,0 +1,50 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+
+import java.io.InputStream;
+
+/**
+ * A StreamProvider for sources whose tiles can change (e.g., a tile server), that says how long each tile stays fresh
+ * and can check whether a cached tile has changed without downloading it again.
+ *
+ * With DiskCachePolicy.CACHE_ALL, tiles from a RevalidatingStreamProvider are stored with their CacheMetadata.  A stale
+ * tile is drawn from the disk cache right away, and checked in the background - it's only downloaded and redrawn if it
+ * changed.
+ */
+public interface RevalidatingStreamProvider extends StreamProvider {
+
+  /**
+   * @param previous The metadata of the cached tile, or null if there isn't one, in which case this always fetches.
+   * @return A Response with the tile's current metadata, and a stream if the tile changed (or previous was null).
+   */
+  Response getStream(int column, int row, Context context, Object data, CacheMetadata previous) throws Exception;
+
+  class Response {
+
+    private final InputStream mStream;
+    private final CacheMetadata mMetadata;
+
+    public Response(InputStream stream, CacheMetadata metadata) {
+      mStream = stream;
+      mMetadata = metadata;
+    }
+
+    /**
+     * @return The tile, or null if it hasn't changed since the previous metadata.
+     */
+    public InputStream getStream() {
+      return mStream;
+    }
+
+    public CacheMetadata getMetadata() {
+      return mMetadata;
+    }
+
+    public boolean isModified() {
+      return mStream != null;
+    }
+
+  }
+
+}
@@ -0,0 +1,207 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reads the same tile set from several sources, in order of preference, e.g., a bundled pack, then a directory of
+ * downloaded tiles, then a tile server.
+ *
+ * A source that doesn't have the tile (FileNotFoundException) or fails passes the request on to the next.  The latency
+ * of each source is tracked, and when one is taking longer than its 95th percentile, the next source is asked as well
+ * (a hedged request) - whichever answers first wins, and the other is cancelled.  Every request counts toward its
+ * source's latency, however it ends - errors, and losers for at least as long as they'd taken when they were cancelled -
+ * so a source that's failing or slow has a high percentile, rather than one made up of only its quick answers.  The tile
+ * is only reported missing if every source says so.
+ *
+ * If the data for a detail level is an Object[], source i is given data[i]; otherwise every source gets the same data.
+ *
+ * Each source has its own fixed pool of threads, as many as the default TileRenderExecutor's, so a source that keeps
+ * state per thread (e.g., StreamProviderMBTiles' connections) sees the same few threads, and losers that won't stop
+ * (cancelling doesn't break a blocked read) only hold up their own source, rather than piling up threads.
+ */
+public class StreamProviderChain implements StreamProvider {
+
+  // how many recent requests each source's percentile is computed from
+  private static final int LATENCY_SAMPLE_SIZE = 64;
+  // don't hedge on a guess - wait until a source has some history
+  private static final int MINIMUM_LATENCY_SAMPLES = 16;
+  private static final float HEDGE_PERCENTILE = 0.95f;
+  private static final String THREAD_NAME = "tileview-chain";
+
+  private final StreamProvider[] mProviders;
+  private final LatencyTracker[] mLatencies;
+  private final ExecutorService[] mExecutors;
+
+  public StreamProviderChain(StreamProvider... providers) {
+    if (providers.length == 0) {
+      throw new IllegalArgumentException("StreamProviderChain requires at least one StreamProvider");
+    }
+    mProviders = providers;
+    mLatencies = new LatencyTracker[providers.length];
+    mExecutors = new ExecutorService[providers.length];
+    int threads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < providers.length; i++) {
+      mLatencies[i] = new LatencyTracker();
+      String name = THREAD_NAME + "-" + i;
+      mExecutors[i] = Executors.newFixedThreadPool(threads, runnable -> {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * @return The 95th percentile latency of the source at index, in milliseconds, or -1 if there aren't enough samples yet.
+   */
+  public long getLatencyPercentile(int index) {
+    return mLatencies[index].getPercentile(HEDGE_PERCENTILE);
+  }
+
+  @Override
+  public InputStream getStream(int column, int row, Context context, Object data) throws Exception {
+    // shared by every source's completion service, so whichever answers first is taken first
+    BlockingQueue<Future<InputStream>> completed = new LinkedBlockingQueue<>();
+    Map<Future<InputStream>, Attempt> inFlight = new HashMap<>();
+    Exception error = null;
+    int next = 0;
+    long hedgeAt = 0;
+    try {
+      while (true) {
+        if (inFlight.isEmpty()) {
+          if (next == mProviders.length) {
+            break;
+          }
+          hedgeAt = submit(completed, inFlight, next++, column, row, context, data);
+        }
+        Future<InputStream> future;
+        if (next < mProviders.length) {
+          // wait until the latest source is slower than usual, then hedge with the one after it
+          future = completed.poll(Math.max(0, hedgeAt - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+          if (future == null) {
+            hedgeAt = submit(completed, inFlight, next++, column, row, context, data);
+            continue;
+          }
+        } else {
+          future = completed.take();
+        }
+        inFlight.remove(future);
+        try {
+          return future.get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (!(cause instanceof FileNotFoundException)) {
+            error = cause instanceof Exception ? (Exception) cause : e;
+          }
+        }
+      }
+    } finally {
+      // the losers
+      for (Map.Entry<Future<InputStream>, Attempt> entry : inFlight.entrySet()) {
+        entry.getKey().cancel(true);
+        entry.getValue().record();
+      }
+    }
+    if (error != null) {
+      throw error;
+    }
+    throw new FileNotFoundException("No source has tile " + column + ", " + row);
+  }
+
+  // returns the time to hedge at if this source hasn't answered
+  private long submit(BlockingQueue<Future<InputStream>> completed, Map<Future<InputStream>, Attempt> inFlight, int index, int column, int row, Context context, Object data) {
+    StreamProvider provider = mProviders[index];
+    LatencyTracker latencies = mLatencies[index];
+    Object sourceData = data instanceof Object[] ? ((Object[]) data)[index] : data;
+    Attempt attempt = new Attempt(latencies);
+    Future<InputStream> future = new ExecutorCompletionService<>(mExecutors[index], completed).submit(() -> {
+      try {
+        return detach(provider.getStream(column, row, context, sourceData));
+      } finally {
+        // a hit, a quick "not here" and a failure are all a measure of the source
+        attempt.record();
+      }
+    });
+    inFlight.put(future, attempt);
+    long percentile = latencies.getPercentile(HEDGE_PERCENTILE);
+    return percentile == -1 ? Long.MAX_VALUE : attempt.start + percentile;
+  }
+
+  // a source's stream may be backed by a buffer belonging to the worker thread (e.g., StreamProviderHttp's), which it
+  // will reuse for its next request - so copy it out before handing it to the decoding thread.  this also makes
+  // streams that don't support reset (e.g., files) resettable.  streams that already reset and own their bytes (e.g.,
+  // StreamProviderPack's, straight out of a mapped file) are passed through as-is.
+  static InputStream detach(InputStream stream) throws IOException {
+    if (stream == null) {
+      throw new FileNotFoundException();
+    }
+    if (stream instanceof ByteBufferInputStream && !(stream instanceof TileBuffer.BufferedTileStream)) {
+      return stream;
+    }
+    try {
+      return new TileBuffer(stream.available() + 1).read(stream, -1);
+    } finally {
+      stream.close();
+    }
+  }
+
+  // one source's part in one request - its latency is recorded once, when it finishes or is cancelled, whichever's first
+  private static class Attempt {
+
+    final long start = System.currentTimeMillis();
+    private final LatencyTracker mLatencies;
+    private final AtomicBoolean mIsRecorded = new AtomicBoolean();
+
+    Attempt(LatencyTracker latencies) {
+      mLatencies = latencies;
+    }
+
+    void record() {
+      if (mIsRecorded.compareAndSet(false, true)) {
+        mLatencies.add(System.currentTimeMillis() - start);
+      }
+    }
+
+  }
+
+  private static class LatencyTracker {
+
+    private final long[] mSamples = new long[LATENCY_SAMPLE_SIZE];
+    private final long[] mSorted = new long[LATENCY_SAMPLE_SIZE];
+    private int mCount;
+    private int mPosition;
+
+    synchronized void add(long latency) {
+      mSamples[mPosition] = latency;
+      mPosition = (mPosition + 1) % mSamples.length;
+      mCount = Math.min(mCount + 1, mSamples.length);
+    }
+
+    synchronized long getPercentile(float percentile) {
+      if (mCount < MINIMUM_LATENCY_SAMPLES) {
+        return -1;
+      }
+      System.arraycopy(mSamples, 0, mSorted, 0, mCount);
+      Arrays.sort(mSorted, 0, mCount);
+      return mSorted[Math.min(mCount - 1, (int) (mCount * percentile))];
+    }
+
+  }
+
+}
@@ -4,13 +4,12 @@ import android.content.Context;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
-import java.util.Locale;
 
 public class StreamProviderFiles implements StreamProvider {
 
   @Override
   public InputStream getStream(int column, int row, Context context, Object data) throws Exception {
-    String file = String.format(Locale.US, (String) data, column, row);
+    String file = TilePathTemplate.from(data).render(column, row);
     return new FileInputStream(file);
   }
 
@@ -2,19 +2,209 @@ package com.github.moagrius.tileview.io;
 
 import android.content.Context;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
-public class StreamProviderHttp implements StreamProvider {
+/**
+ * Fetches tiles over HTTP.
+ *
+ * - Connect and read timeouts, so a slow server can't hold a decode thread forever.
+ * - A cap on requests in flight per host, separate from (and usually smaller than) the decode pool.
+ * - Responses are read completely into a per-thread buffer (exactly Content-Length bytes, when it's known) and the
+ *   connection is released right away, so HttpURLConnection can keep it alive and reuse it for the next tile.
+ * - gzip content encoding is requested and handled.
+ * - 404 and 410 throw FileNotFoundException, so the tile is remembered as missing; other errors throw IOException.
+ * - Responses report their freshness (Cache-Control max-age or Expires, and ETag / Last-Modified), and cached tiles are
+ *   revalidated with conditional requests, so an unchanged tile costs a 304 rather than a download.
+ */
+public class StreamProviderHttp implements RevalidatingStreamProvider {
+
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+  public static final int DEFAULT_READ_TIMEOUT = 15 * 1000;
+  public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+  public static final long DEFAULT_MAX_AGE = 24 * 60 * 60 * 1000;
+
+  private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+  private static final String GZIP = "gzip";
+  private static final String MAX_AGE = "max-age=";
+
+  private final int mConnectTimeout;
+  private final int mReadTimeout;
+  private final int mMaxRequestsPerHost;
+  private long mDefaultMaxAge = DEFAULT_MAX_AGE;
+  private final ConcurrentHashMap<String, Semaphore> mHostPermits = new ConcurrentHashMap<>();
+  private final ThreadLocal<TileBuffer> mBuffer = new ThreadLocal<TileBuffer>() {
+    @Override
+    protected TileBuffer initialValue() {
+      return new TileBuffer(INITIAL_BUFFER_SIZE);
+    }
+  };
+
+  public StreamProviderHttp() {
+    this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_REQUESTS_PER_HOST);
+  }
+
+  /**
+   * @param connectTimeout Milliseconds to wait for a connection (and for a free slot for the host).
+   * @param readTimeout Milliseconds to wait between reads.
+   * @param maxRequestsPerHost The maximum number of requests in flight to any one host.
+   */
+  public StreamProviderHttp(int connectTimeout, int readTimeout, int maxRequestsPerHost) {
+    mConnectTimeout = connectTimeout;
+    mReadTimeout = readTimeout;
+    mMaxRequestsPerHost = maxRequestsPerHost;
+  }
+
+  /**
+   * @param defaultMaxAge How long, in milliseconds, a tile stays fresh when the server doesn't say.
+   */
+  public void setDefaultMaxAge(long defaultMaxAge) {
+    mDefaultMaxAge = defaultMaxAge;
+  }
 
   @Override
   public InputStream getStream(int column, int row, Context context, Object data) throws Exception {
-    String location = String.format(Locale.US, (String) data, column, row);
-    URL url = new URL(location);
-    URLConnection connection = url.openConnection();
-    return connection.getInputStream();
+    return getStream(column, row, context, data, null).getStream();
+  }
+
+  @Override
+  public Response getStream(int column, int row, Context context, Object data, CacheMetadata previous) throws Exception {
+    String location = TilePathTemplate.from(data).render(column, row);
+    return getStream(new URL(location), previous);
+  }
+
+  protected Response getStream(URL url, CacheMetadata previous) throws IOException, InterruptedException {
+    Semaphore permits = getPermits(url);
+    if (!permits.tryAcquire(mConnectTimeout, TimeUnit.MILLISECONDS)) {
+      throw new IOException("Timed out waiting for a connection to " + url.getHost());
+    }
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    try {
+      connection.setConnectTimeout(mConnectTimeout);
+      connection.setReadTimeout(mReadTimeout);
+      connection.setUseCaches(false);
+      // setting this ourselves means HttpURLConnection won't decompress transparently (on Android), so we always do it
+      connection.setRequestProperty("Accept-Encoding", GZIP);
+      if (previous != null) {
+        if (previous.getEntityTag() != null) {
+          connection.setRequestProperty("If-None-Match", previous.getEntityTag());
+        }
+        if (previous.getLastModified() != null) {
+          connection.setRequestProperty("If-Modified-Since", previous.getLastModified());
+        }
+      }
+      int code = connection.getResponseCode();
+      if (code == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+        drain(connection.getInputStream());
+        return new Response(null, getMetadata(connection, previous));
+      }
+      if (code != HttpURLConnection.HTTP_OK) {
+        drain(connection.getErrorStream());
+        if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_GONE) {
+          throw new FileNotFoundException(url.toString());
+        }
+        throw new IOException("HTTP " + code + " from " + url);
+      }
+      return new Response(read(connection), getMetadata(connection, null));
+    } catch (IOException e) {
+      // timeouts and broken responses leave the socket in an unknown state, don't let it be reused
+      if (!(e instanceof FileNotFoundException)) {
+        connection.disconnect();
+      }
+      throw e;
+    } finally {
+      permits.release();
+    }
+  }
+
+  // reads the entire response body and closes the stream, which hands the connection back to the keep-alive pool
+  protected InputStream read(HttpURLConnection connection) throws IOException {
+    InputStream inputStream = connection.getInputStream();
+    try {
+      if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+        return mBuffer.get().read(new GZIPInputStream(inputStream), -1);
+      }
+      return mBuffer.get().read(inputStream, connection.getContentLength());
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  // a 304 may leave out validators that haven't changed, in which case the previous ones still apply
+  protected CacheMetadata getMetadata(HttpURLConnection connection, CacheMetadata previous) {
+    String entityTag = connection.getHeaderField("ETag");
+    String lastModified = connection.getHeaderField("Last-Modified");
+    if (previous != null) {
+      if (entityTag == null) {
+        entityTag = previous.getEntityTag();
+      }
+      if (lastModified == null) {
+        lastModified = previous.getLastModified();
+      }
+    }
+    return new CacheMetadata(entityTag, lastModified, getExpires(connection));
+  }
+
+  // Cache-Control wins over Expires; no-cache means it's stale right away (so it's checked every time it's read from disk)
+  private long getExpires(HttpURLConnection connection) {
+    long now = System.currentTimeMillis();
+    String cacheControl = connection.getHeaderField("Cache-Control");
+    if (cacheControl != null) {
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase(Locale.US);
+        if (directive.equals("no-cache") || directive.equals("no-store")) {
+          return now;
+        }
+        if (directive.startsWith(MAX_AGE)) {
+          try {
+            return now + Long.parseLong(directive.substring(MAX_AGE.length()).trim()) * 1000;
+          } catch (NumberFormatException e) {
+            // no op
+          }
+        }
+      }
+    }
+    long expiration = connection.getExpiration();
+    if (expiration > 0) {
+      return expiration;
+    }
+    return now + mDefaultMaxAge;
+  }
+
+  private Semaphore getPermits(URL url) {
+    String host = url.getHost() + ":" + url.getPort();
+    Semaphore permits = mHostPermits.get(host);
+    if (permits == null) {
+      permits = new Semaphore(mMaxRequestsPerHost);
+      Semaphore existing = mHostPermits.putIfAbsent(host, permits);
+      if (existing != null) {
+        permits = existing;
+      }
+    }
+    return permits;
+  }
+
+  private static void drain(InputStream inputStream) {
+    if (inputStream == null) {
+      return;
+    }
+    try {
+      byte[] buffer = new byte[1024];
+      while (inputStream.read(buffer) != -1) {
+        // discard
+      }
+      inputStream.close();
+    } catch (IOException e) {
+      // no op
+    }
   }
 
 }
@@ -0,0 +1,138 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads tiles straight out of an MBTiles (SQLite) file.
+ *
+ * Every worker thread gets its own read only connection and its own compiled lookup statement, so decode threads never
+ * wait on each other for the database.  Tile blobs are read into a per-thread buffer and handed to the decoder from there.
+ * For patches, all the pieces are fetched with one query (see BatchStreamProvider).
+ *
+ * The data object for each detail level is the MBTiles zoom_level (an Integer).  MBTiles rows count up from the bottom
+ * (TMS), so rows are flipped by default, assuming the tile set covers the whole 2^zoom grid.
+ */
+public class StreamProviderMBTiles implements BatchStreamProvider {
+
+  private static final String TILE_QUERY = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+  private static final String BATCH_QUERY = "SELECT tile_column, tile_row, tile_data FROM tiles WHERE zoom_level = ? AND tile_column BETWEEN ? AND ? AND tile_row BETWEEN ? AND ?";
+  private static final int INITIAL_BUFFER_SIZE = 32 * 1024;
+
+  private final String mPath;
+  private final boolean mShouldFlipRows;
+  private final List<Connection> mConnections = new ArrayList<>();
+  private final ThreadLocal<Connection> mConnection = new ThreadLocal<Connection>() {
+    @Override
+    protected Connection initialValue() {
+      Connection connection = new Connection(mPath);
+      synchronized (mConnections) {
+        mConnections.add(connection);
+      }
+      return connection;
+    }
+  };
+
+  public StreamProviderMBTiles(String path) {
+    this(path, true);
+  }
+
+  public StreamProviderMBTiles(String path, boolean shouldFlipRows) {
+    mPath = path;
+    mShouldFlipRows = shouldFlipRows;
+  }
+
+  private int getTileRow(int zoom, int row) {
+    return mShouldFlipRows ? (1 << zoom) - 1 - row : row;
+  }
+
+  @Override
+  public InputStream getStream(int column, int row, Context context, Object data) throws Exception {
+    int zoom = (Integer) data;
+    Connection connection = mConnection.get();
+    connection.tileStatement.bindLong(1, zoom);
+    connection.tileStatement.bindLong(2, column);
+    connection.tileStatement.bindLong(3, getTileRow(zoom, row));
+    ParcelFileDescriptor descriptor;
+    try {
+      descriptor = connection.tileStatement.simpleQueryForBlobFileDescriptor();
+    } catch (SQLiteDoneException e) {
+      throw new FileNotFoundException("No tile at " + zoom + "/" + column + "/" + row);
+    }
+    if (descriptor == null) {
+      throw new FileNotFoundException("No tile at " + zoom + "/" + column + "/" + row);
+    }
+    InputStream inputStream = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+    try {
+      return connection.buffer.read(inputStream, -1);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  @Override
+  public void getStreams(int column, int row, int span, Context context, Object data, Receiver receiver) throws Exception {
+    int zoom = (Integer) data;
+    int first = getTileRow(zoom, row);
+    int last = getTileRow(zoom, row + span - 1);
+    String[] arguments = {
+        String.valueOf(zoom),
+        String.valueOf(column),
+        String.valueOf(column + span - 1),
+        String.valueOf(Math.min(first, last)),
+        String.valueOf(Math.max(first, last))
+    };
+    // the connection keeps its own cache of compiled statements, so this is only compiled once per worker
+    Cursor cursor = mConnection.get().database.rawQuery(BATCH_QUERY, arguments);
+    try {
+      while (cursor.moveToNext()) {
+        byte[] blob = cursor.getBlob(2);
+        int tileRow = getTileRow(zoom, cursor.getInt(1));
+        receiver.onStream(cursor.getInt(0), tileRow, new ByteBufferInputStream(ByteBuffer.wrap(blob)));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Closes every worker's connection.  Don't call this while tiles are still decoding.
+   */
+  public void close() {
+    synchronized (mConnections) {
+      for (Connection connection : mConnections) {
+        connection.close();
+      }
+      mConnections.clear();
+    }
+  }
+
+  private static class Connection {
+
+    final SQLiteDatabase database;
+    final SQLiteStatement tileStatement;
+    final TileBuffer buffer = new TileBuffer(INITIAL_BUFFER_SIZE);
+
+    Connection(String path) {
+      database = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+      tileStatement = database.compileStatement(TILE_QUERY);
+    }
+
+    void close() {
+      tileStatement.close();
+      database.close();
+    }
+
+  }
+
+}
@@ -0,0 +1,44 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+
+import com.github.moagrius.tileview.TileView;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Serves tiles from a memory mapped TilePack, as zero copy slices of the mapping.
+ *
+ * The data object for each detail level is the zoom of that level in the pack (an Integer).
+ * Use defineZoomLevels to define every level in the pack, with its grid size, in one call.
+ */
+public class StreamProviderPack implements StreamProvider {
+
+  private final TilePack mTilePack;
+
+  public StreamProviderPack(TilePack tilePack) {
+    mTilePack = tilePack;
+  }
+
+  public TilePack getTilePack() {
+    return mTilePack;
+  }
+
+  public TileView.Builder defineZoomLevels(TileView.Builder builder) {
+    for (TilePack.Level level : mTilePack.getLevels()) {
+      builder.defineZoomLevel(level.getZoom(), level.getZoom(), level.getColumns(), level.getRows());
+    }
+    return builder.setTileSize(mTilePack.getTileSize()).setStreamProvider(this);
+  }
+
+  @Override
+  public InputStream getStream(int column, int row, Context context, Object data) {
+    ByteBuffer tile = mTilePack.getTile((Integer) data, column, row);
+    if (tile == null) {
+      return null;
+    }
+    return new ByteBufferInputStream(tile);
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.github.moagrius.tileview.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable, growable byte buffer that encoded tiles are read into before decoding, so we aren't allocating a new
+ * array (or buffering stream) per tile.  Not thread safe - keep one per worker thread.
+ *
+ * The stream returned by read is only valid until the next read, which is fine since Tile consumes each stream before
+ * asking for another.
+ */
+public class TileBuffer {
+
+  private byte[] mBytes;
+
+  public TileBuffer(int initialSize) {
+    mBytes = new byte[initialSize];
+  }
+
+  /**
+   * Reads the input stream to its end (it is not closed).
+   *
+   * @param length The exact length of the content, if known (e.g., from Content-Length), or -1.
+   * @return A stream over the bytes read, supporting mark and reset.
+   */
+  public InputStream read(InputStream inputStream, int length) throws IOException {
+    if (length >= 0) {
+      ensureCapacity(length);
+      int position = 0;
+      while (position < length) {
+        int count = inputStream.read(mBytes, position, length - position);
+        if (count == -1) {
+          throw new EOFException("Expected " + length + " bytes, got " + position);
+        }
+        position += count;
+      }
+      return new BufferedTileStream(ByteBuffer.wrap(mBytes, 0, length));
+    }
+    int position = 0;
+    int count;
+    while ((count = inputStream.read(mBytes, position, mBytes.length - position)) != -1) {
+      position += count;
+      if (position == mBytes.length) {
+        ensureCapacity(mBytes.length * 2);
+      }
+    }
+    return new BufferedTileStream(ByteBuffer.wrap(mBytes, 0, position));
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > mBytes.length) {
+      byte[] grown = new byte[capacity];
+      System.arraycopy(mBytes, 0, grown, 0, mBytes.length);
+      mBytes = grown;
+    }
+  }
+
+  /**
+   * A stream over a TileBuffer's bytes, which its next read overwrites.
+   */
+  static class BufferedTileStream extends ByteBufferInputStream {
+    BufferedTileStream(ByteBuffer buffer) {
+      super(buffer);
+    }
+  }
+
+}
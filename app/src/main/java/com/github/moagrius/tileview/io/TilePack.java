@@ -0,0 +1,158 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read only, memory mapped tile pack: every tile of every detail level of a tile set, in one file.
+ *
+ * Layout (big endian):
+ *
+ * header
+ *   magic         4 bytes, "TVPK"
+ *   version       int
+ *   tile size     int
+ *   detail count  int
+ * one per detail level
+ *   zoom          int (TileView zoom, 0 is full size)
+ *   columns       int
+ *   rows          int
+ *   index offset  long
+ * one index per detail level, at its index offset, columns * rows entries in row major order
+ *   tile offset   long (from the start of the pack)
+ *   tile length   int (0 if the tile is missing, e.g., it was skipped as uniform)
+ * encoded tiles, in any order, contiguous
+ *
+ * Tiles are served as slices of the mapping, so looking one up costs a bounds check and an index read.
+ * The whole pack is mapped at once, so it must be smaller than 2GB.
+ */
+public class TilePack {
+
+  public static final int MAGIC = 0x5456504B; // TVPK
+  public static final int VERSION = 1;
+
+  private static final int INDEX_ENTRY_SIZE = 12;
+
+  private final ByteBuffer mBuffer;
+  private final int mTileSize;
+  private final List<Level> mLevels = new ArrayList<>();
+
+  public TilePack(ByteBuffer buffer) throws IOException {
+    mBuffer = buffer;
+    if (mBuffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a tile pack");
+    }
+    int version = mBuffer.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported tile pack version: " + version);
+    }
+    mTileSize = mBuffer.getInt(8);
+    int detailCount = mBuffer.getInt(12);
+    int position = 16;
+    for (int i = 0; i < detailCount; i++) {
+      Level level = new Level();
+      level.zoom = mBuffer.getInt(position);
+      level.columns = mBuffer.getInt(position + 4);
+      level.rows = mBuffer.getInt(position + 8);
+      level.indexOffset = (int) mBuffer.getLong(position + 12);
+      mLevels.add(level);
+      position += 20;
+    }
+  }
+
+  public static TilePack open(File file) throws IOException {
+    FileInputStream inputStream = new FileInputStream(file);
+    try {
+      FileChannel channel = inputStream.getChannel();
+      // the mapping stays valid after the channel is closed
+      return new TilePack(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Maps a pack from assets.  The asset must be stored uncompressed (aaptOptions { noCompress "pack" }),
+   * otherwise it has no file descriptor to map.
+   */
+  public static TilePack open(Context context, String asset) throws IOException {
+    AssetFileDescriptor descriptor = context.getAssets().openFd(asset);
+    try {
+      FileInputStream inputStream = descriptor.createInputStream();
+      try {
+        FileChannel channel = inputStream.getChannel();
+        return new TilePack(channel.map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength()));
+      } finally {
+        inputStream.close();
+      }
+    } finally {
+      descriptor.close();
+    }
+  }
+
+  public int getTileSize() {
+    return mTileSize;
+  }
+
+  public List<Level> getLevels() {
+    return mLevels;
+  }
+
+  public Level getLevel(int zoom) {
+    for (Level level : mLevels) {
+      if (level.zoom == zoom) {
+        return level;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return A slice of the mapping holding the encoded tile, or null if the pack doesn't have it.
+   */
+  public ByteBuffer getTile(int zoom, int column, int row) {
+    Level level = getLevel(zoom);
+    if (level == null || column < 0 || row < 0 || column >= level.columns || row >= level.rows) {
+      return null;
+    }
+    int entry = level.indexOffset + (row * level.columns + column) * INDEX_ENTRY_SIZE;
+    // absolute reads are safe across threads, but position and limit are not, so work on a duplicate
+    int offset = (int) mBuffer.getLong(entry);
+    int length = mBuffer.getInt(entry + 8);
+    if (length == 0) {
+      return null;
+    }
+    ByteBuffer tile = mBuffer.duplicate();
+    tile.limit(offset + length);
+    tile.position(offset);
+    return tile;
+  }
+
+  public static class Level {
+    int zoom;
+    int columns;
+    int rows;
+    int indexOffset;
+
+    public int getZoom() {
+      return zoom;
+    }
+
+    public int getColumns() {
+      return columns;
+    }
+
+    public int getRows() {
+      return rows;
+    }
+  }
+
+}
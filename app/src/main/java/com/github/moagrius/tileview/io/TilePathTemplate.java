@@ -0,0 +1,192 @@
+package com.github.moagrius.tileview.io;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A tile path pattern (e.g., "tiles/phi-500-%1$d_%2$d.jpg"), parsed once, that renders paths without String.format -
+ * no Formatter, varargs array, or boxed integers per tile.
+ *
+ * Accepts the same patterns the built-in StreamProviders always have: %1$d is the column and %2$d is the row, a plain
+ * %d is the column then the row, %% is a percent sign, and a width (with an optional 0 flag) is allowed, e.g., %1$03d.
+ * Anything else is still rendered correctly, with String.format.
+ *
+ * A TilePathTemplate can be used as a detail level's data in place of the pattern itself.
+ */
+public class TilePathTemplate {
+
+  private static final int COLUMN = 0;
+  private static final int ROW = 1;
+
+  private static final ConcurrentHashMap<String, TilePathTemplate> sTemplates = new ConcurrentHashMap<>();
+  private static final ThreadLocal<StringBuilder> sBuilder = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder(128);
+    }
+  };
+
+  private final String mPattern;
+  // literal text before each argument, and after the last one
+  private String[] mLiterals;
+  private int[] mArguments;
+  private int[] mWidths;
+  private char[] mPadding;
+  // patterns we don't parse ourselves
+  private boolean mIsFormatted;
+
+  private TilePathTemplate(String pattern) {
+    mPattern = pattern;
+    if (!parse()) {
+      mIsFormatted = true;
+    }
+  }
+
+  public static TilePathTemplate compile(String pattern) {
+    return new TilePathTemplate(pattern);
+  }
+
+  /**
+   * @param data A TilePathTemplate, or a pattern - patterns are compiled the first time they're seen and reused after.
+   */
+  public static TilePathTemplate from(Object data) {
+    if (data instanceof TilePathTemplate) {
+      return (TilePathTemplate) data;
+    }
+    String pattern = (String) data;
+    TilePathTemplate template = sTemplates.get(pattern);
+    if (template == null) {
+      template = compile(pattern);
+      sTemplates.put(pattern, template);
+    }
+    return template;
+  }
+
+  public String getPattern() {
+    return mPattern;
+  }
+
+  /**
+   * Appends the path for column and row, allocating nothing beyond what the builder itself needs to grow.
+   */
+  public StringBuilder appendTo(StringBuilder builder, int column, int row) {
+    if (mIsFormatted) {
+      return builder.append(String.format(Locale.US, mPattern, column, row));
+    }
+    for (int i = 0; i < mArguments.length; i++) {
+      builder.append(mLiterals[i]);
+      int value = mArguments[i] == COLUMN ? column : row;
+      int padding = mWidths[i] - getLength(value);
+      // zeros go after the sign
+      if (value < 0 && mPadding[i] == '0') {
+        builder.append('-');
+        value = -value;
+      }
+      for (; padding > 0; padding--) {
+        builder.append(mPadding[i]);
+      }
+      builder.append(value);
+    }
+    return builder.append(mLiterals[mArguments.length]);
+  }
+
+  /**
+   * @return The path for column and row, rendered in this thread's builder, so the path String is the only allocation.
+   */
+  public String render(int column, int row) {
+    StringBuilder builder = sBuilder.get();
+    builder.setLength(0);
+    return appendTo(builder, column, row).toString();
+  }
+
+  private static int getLength(int value) {
+    int length = value < 0 ? 2 : 1;
+    value = Math.abs(value / 10);
+    while (value > 0) {
+      value /= 10;
+      length++;
+    }
+    return length;
+  }
+
+  // %[index$][0][width]d and %%, or false if there's anything else in the pattern
+  private boolean parse() {
+    int count = 0;
+    for (int i = 0; i < mPattern.length(); i++) {
+      if (mPattern.charAt(i) == '%') {
+        if (i + 1 < mPattern.length() && mPattern.charAt(i + 1) == '%') {
+          i++;
+        } else {
+          count++;
+        }
+      }
+    }
+    mLiterals = new String[count + 1];
+    mArguments = new int[count];
+    mWidths = new int[count];
+    mPadding = new char[count];
+    StringBuilder literal = new StringBuilder();
+    int ordinary = 0;
+    int argument = 0;
+    int position = 0;
+    int length = mPattern.length();
+    while (position < length) {
+      char c = mPattern.charAt(position++);
+      if (c != '%') {
+        literal.append(c);
+        continue;
+      }
+      if (position < length && mPattern.charAt(position) == '%') {
+        literal.append('%');
+        position++;
+        continue;
+      }
+      int start = position;
+      while (position < length && Character.isDigit(mPattern.charAt(position))) {
+        position++;
+      }
+      int index;
+      if (position < length && mPattern.charAt(position) == '$') {
+        if (position == start) {
+          return false;
+        }
+        index = Integer.parseInt(mPattern.substring(start, position)) - 1;
+        start = ++position;
+        while (position < length && Character.isDigit(mPattern.charAt(position))) {
+          position++;
+        }
+      } else {
+        // like Formatter, plain specifiers take arguments in order, regardless of any explicit indexes
+        index = ordinary++;
+      }
+      if (position >= length || mPattern.charAt(position) != 'd' || (index != COLUMN && index != ROW)) {
+        return false;
+      }
+      String width = mPattern.substring(start, position++);
+      mPadding[argument] = width.startsWith("0") ? '0' : ' ';
+      mWidths[argument] = width.isEmpty() ? 0 : Integer.parseInt(width);
+      mArguments[argument] = index;
+      mLiterals[argument] = literal.toString();
+      literal.setLength(0);
+      argument++;
+    }
+    mLiterals[argument] = literal.toString();
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof TilePathTemplate && ((TilePathTemplate) obj).mPattern.equals(mPattern);
+  }
+
+  @Override
+  public int hashCode() {
+    return mPattern.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return mPattern;
+  }
+
+}
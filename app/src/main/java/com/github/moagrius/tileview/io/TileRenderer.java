@@ -0,0 +1,25 @@
+package com.github.moagrius.tileview.io;
+
+import android.content.Context;
+import android.graphics.Canvas;
+
+/**
+ * A tile source that draws tiles directly, rather than providing encoded images - for tiles that are generated rather
+ * than read (grids, charts, composited layers), so they aren't encoded only to be decoded again.
+ *
+ * Tiles are rendered on the same decode threads, into the same pooled bitmaps, and cached the same way, as tiles from a
+ * StreamProvider.
+ */
+public interface TileRenderer {
+
+  /**
+   * Draws the tile at column, row.  Called from a decode thread.
+   *
+   * @param canvas A canvas tileSize pixels square, with the tile's top left corner at its origin.  Drawing is clipped to
+   *               the tile.  The bitmap behind it is usually reused, so it isn't necessarily clear - draw a background.
+   *               When patching, the canvas is scaled down, so draw at full tile size regardless.
+   * @return False if there's no tile at column, row.
+   */
+  boolean renderTile(int column, int row, Canvas canvas, Context context, Object data) throws Exception;
+
+}
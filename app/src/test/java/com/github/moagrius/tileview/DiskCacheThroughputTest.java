@@ -0,0 +1,140 @@
+package com.github.moagrius.tileview;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Puts and gets of tile-sized byte payloads against DiskLruCache, as DiskCacheShard does them, with 1, 4 and 8 workers,
+ * over one cache versus DiskCache.DEFAULT_SHARD_COUNT shards keyed the way DiskCache picks them.  Throughput is printed
+ * for comparison rather than asserted, since it depends on the machine - only that every entry reads back is checked.
+ */
+public class DiskCacheThroughputTest {
+
+  private static final int PAYLOAD_SIZE = 16 * 1024;
+  private static final int OPERATIONS_PER_WORKER = 200;
+  private static final long SIZE = 64L * 1024 * 1024;
+  private static final int[] WORKERS = {1, 4, 8};
+
+  private static final byte[] PAYLOAD = new byte[PAYLOAD_SIZE];
+
+  static {
+    for (int i = 0; i < PAYLOAD.length; i++) {
+      PAYLOAD[i] = (byte) i;
+    }
+  }
+
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = Files.createTempDirectory("tileview-disk-cache-throughput").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    delete(mDirectory);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  @Test
+  public void shardsAgainstOneCache() throws Exception {
+    for (int workers : WORKERS) {
+      double single = measure(1, workers);
+      double sharded = measure(DiskCache.DEFAULT_SHARD_COUNT, workers);
+      System.out.printf("%d workers: %.0f ops/s in 1 cache, %.0f ops/s in %d shards%n", workers, single, sharded, DiskCache.DEFAULT_SHARD_COUNT);
+    }
+  }
+
+  // operations (a put and a get each) per second
+  private double measure(int shardCount, int workers) throws Exception {
+    File root = new File(mDirectory, shardCount + "-" + workers);
+    DiskLruCache[] shards = new DiskLruCache[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = DiskLruCache.open(new File(root, String.valueOf(i)), 1, 2, SIZE / shardCount);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int worker = 0; worker < workers; worker++) {
+        int offset = worker * OPERATIONS_PER_WORKER;
+        futures.add(executor.submit(() -> {
+          for (int i = offset; i < offset + OPERATIONS_PER_WORKER; i++) {
+            String key = i + "_" + i + "_1_0";
+            DiskLruCache shard = shards[(key.hashCode() & Integer.MAX_VALUE) % shards.length];
+            put(shard, key);
+            assertTrue(get(shard, key));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      return workers * OPERATIONS_PER_WORKER / ((System.nanoTime() - start) / 1e9);
+    } finally {
+      executor.shutdownNow();
+      for (DiskLruCache shard : shards) {
+        shard.close();
+      }
+    }
+  }
+
+  private static void put(DiskLruCache cache, String key) throws IOException {
+    DiskLruCache.Editor editor = cache.edit(key);
+    OutputStream outputStream = editor.newOutputStream(0);
+    try {
+      outputStream.write(PAYLOAD);
+    } finally {
+      outputStream.close();
+    }
+    editor.set(1, "");
+    cache.flush();
+    editor.commit();
+  }
+
+  private static boolean get(DiskLruCache cache, String key) throws IOException {
+    DiskLruCache.Snapshot snapshot = cache.get(key);
+    if (snapshot == null) {
+      return false;
+    }
+    try {
+      InputStream inputStream = snapshot.getInputStream(0);
+      byte[] buffer = new byte[4096];
+      int total = 0;
+      int count;
+      while ((count = inputStream.read(buffer)) != -1) {
+        total += count;
+      }
+      return total == PAYLOAD_SIZE;
+    } finally {
+      snapshot.close();
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+package com.github.moagrius.tileview.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StreamProviderChainTest {
+
+  private static final int SAMPLES = 16;
+
+  private static InputStream stream(int value) {
+    return new ByteArrayInputStream(new byte[]{(byte) value});
+  }
+
+  private static int read(InputStream stream) throws IOException {
+    return stream.read();
+  }
+
+  @Test
+  public void missingTilesFallThroughToTheNextSource() throws Exception {
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          throw new FileNotFoundException();
+        },
+        (column, row, context, data) -> stream(2));
+    assertEquals(2, read(chain.getStream(0, 0, null, null)));
+  }
+
+  @Test
+  public void eachSourceGetsItsOwnData() throws Exception {
+    // sources run on the chain's threads, where a failed assertion would just be a source error - check here instead
+    AtomicReference<Object> first = new AtomicReference<>();
+    AtomicReference<Object> second = new AtomicReference<>();
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          first.set(data);
+          throw new FileNotFoundException();
+        },
+        (column, row, context, data) -> {
+          second.set(data);
+          return stream(2);
+        });
+    assertEquals(2, read(chain.getStream(0, 0, null, new Object[]{"first", "second"})));
+    assertEquals("first", first.get());
+    assertEquals("second", second.get());
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void missingEverywhereIsMissing() throws Exception {
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          throw new FileNotFoundException();
+        },
+        (column, row, context, data) -> null);
+    chain.getStream(0, 0, null, null);
+  }
+
+  @Test(expected = IOException.class)
+  public void errorsAreReportedOverMisses() throws Exception {
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          throw new IOException("broken");
+        },
+        (column, row, context, data) -> {
+          throw new FileNotFoundException();
+        });
+    chain.getStream(0, 0, null, null);
+  }
+
+  @Test
+  public void errorsCountTowardLatency() throws Exception {
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          Thread.sleep(20);
+          throw new IOException("broken");
+        },
+        (column, row, context, data) -> stream(2));
+    assertEquals(-1, chain.getLatencyPercentile(0));
+    for (int i = 0; i < SAMPLES; i++) {
+      assertEquals(2, read(chain.getStream(0, 0, null, null)));
+    }
+    assertTrue(chain.getLatencyPercentile(0) >= 20);
+  }
+
+  @Test
+  public void slowSourcesAreHedged() throws Exception {
+    AtomicInteger delay = new AtomicInteger();
+    CountDownLatch cancelled = new CountDownLatch(1);
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          try {
+            Thread.sleep(delay.get());
+          } catch (InterruptedException e) {
+            cancelled.countDown();
+            throw e;
+          }
+          return stream(1);
+        },
+        (column, row, context, data) -> stream(2));
+    // no history, no hedging
+    for (int i = 0; i < SAMPLES; i++) {
+      assertEquals(1, read(chain.getStream(0, 0, null, null)));
+    }
+    delay.set(5000);
+    long start = System.currentTimeMillis();
+    assertEquals(2, read(chain.getStream(0, 0, null, null)));
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    // the loser is cancelled, and counted for as long as it took until then
+    assertTrue(cancelled.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void cancelledLosersRaiseThePercentile() throws Exception {
+    AtomicInteger delay = new AtomicInteger();
+    StreamProviderChain chain = new StreamProviderChain(
+        (column, row, context, data) -> {
+          Thread.sleep(delay.get());
+          return stream(1);
+        },
+        (column, row, context, data) -> {
+          Thread.sleep(50);
+          return stream(2);
+        });
+    for (int i = 0; i < SAMPLES; i++) {
+      chain.getStream(0, 0, null, null);
+    }
+    long fast = chain.getLatencyPercentile(0);
+    delay.set(5000);
+    // each of these is hedged and lost by the first source, after ~50ms
+    for (int i = 0; i < SAMPLES; i++) {
+      assertEquals(2, read(chain.getStream(0, 0, null, null)));
+    }
+    assertTrue(chain.getLatencyPercentile(0) >= 50);
+    assertTrue(chain.getLatencyPercentile(0) > fast);
+  }
+
+  @Test
+  public void ownedBuffersArentCopied() throws IOException {
+    InputStream stream = new ByteBufferInputStream(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+    assertSame(stream, StreamProviderChain.detach(stream));
+  }
+
+  @Test
+  public void sharedBuffersAreCopied() throws IOException {
+    TileBuffer buffer = new TileBuffer(4);
+    InputStream stream = buffer.read(new ByteArrayInputStream(new byte[]{1, 2, 3}), 3);
+    InputStream detached = StreamProviderChain.detach(stream);
+    assertNotSame(stream, detached);
+    // the next read overwrites the shared buffer, but not the copy
+    buffer.read(new ByteArrayInputStream(new byte[]{9, 9, 9}), 3);
+    assertEquals(1, detached.read());
+    detached.reset();
+    assertEquals(1, detached.read());
+  }
+
+}
@@ -0,0 +1,252 @@
+package com.github.moagrius.tileview.io;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class StreamProviderHttpTest {
+
+  private static final byte[] BODY = new byte[40 * 1024];
+
+  static {
+    for (int i = 0; i < BODY.length; i++) {
+      BODY[i] = (byte) i;
+    }
+  }
+
+  private HttpServer mServer;
+  private String mPattern;
+  private final AtomicInteger mInFlight = new AtomicInteger();
+  private final AtomicInteger mMaxInFlight = new AtomicInteger();
+  private final Set<Integer> mClientPorts = Collections.synchronizedSet(new HashSet<>());
+  // recorded on the server thread, checked on the test thread - an assertion failing in handle would only drop the
+  // connection
+  private final AtomicReference<String> mAcceptEncoding = new AtomicReference<>();
+
+  @Before
+  public void setUp() throws IOException {
+    mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    mServer.setExecutor(Executors.newCachedThreadPool());
+    mServer.createContext("/tiles", this::handle);
+    mServer.start();
+    // the column picks the behavior, the row is the latency in milliseconds
+    mPattern = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/tiles/%1$d/%2$d";
+  }
+
+  @After
+  public void tearDown() {
+    mServer.stop(0);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    int inFlight = mInFlight.incrementAndGet();
+    mMaxInFlight.accumulateAndGet(inFlight, Math::max);
+    mClientPorts.add(exchange.getRemoteAddress().getPort());
+    try {
+      String[] parts = exchange.getRequestURI().getPath().split("/");
+      int behavior = Integer.parseInt(parts[2]);
+      Thread.sleep(Integer.parseInt(parts[3]));
+      switch (behavior) {
+        case 0:
+          exchange.sendResponseHeaders(200, BODY.length);
+          exchange.getResponseBody().write(BODY);
+          break;
+        case 1:
+          mAcceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+          ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+          GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+          gzip.write(BODY);
+          gzip.close();
+          exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+          exchange.sendResponseHeaders(200, compressed.size());
+          exchange.getResponseBody().write(compressed.toByteArray());
+          break;
+        case 2:
+          // chunked, no content length
+          exchange.sendResponseHeaders(200, 0);
+          exchange.getResponseBody().write(BODY);
+          break;
+        case 3:
+          // versioned, with validators and a freshness lifetime
+          exchange.getResponseHeaders().set("ETag", "\"v1\"");
+          exchange.getResponseHeaders().set("Cache-Control", "public, max-age=60");
+          if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+          } else {
+            exchange.sendResponseHeaders(200, BODY.length);
+            exchange.getResponseBody().write(BODY);
+          }
+          break;
+        case 404:
+          exchange.sendResponseHeaders(404, -1);
+          break;
+        default:
+          exchange.sendResponseHeaders(behavior, -1);
+      }
+    } catch (InterruptedException e) {
+      // no op
+    } finally {
+      exchange.close();
+      mInFlight.decrementAndGet();
+    }
+  }
+
+  private static byte[] readAll(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int count;
+    while ((count = inputStream.read(buffer)) != -1) {
+      bytes.write(buffer, 0, count);
+    }
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void getStream_buffersExactlyTheBodyAndSupportsReset() throws Exception {
+    StreamProviderHttp streamProvider = new StreamProviderHttp();
+    InputStream stream = streamProvider.getStream(0, 0, null, mPattern);
+    assertTrue(stream.markSupported());
+    assertEquals(BODY.length, stream.available());
+    stream.skip(1000);
+    stream.reset();
+    assertArrayEquals(BODY, readAll(stream));
+  }
+
+  @Test
+  public void getStream_readsBodyWithoutContentLength() throws Exception {
+    StreamProviderHttp streamProvider = new StreamProviderHttp();
+    assertArrayEquals(BODY, readAll(streamProvider.getStream(2, 0, null, mPattern)));
+  }
+
+  @Test
+  public void getStream_decompressesGzip() throws Exception {
+    StreamProviderHttp streamProvider = new StreamProviderHttp();
+    assertArrayEquals(BODY, readAll(streamProvider.getStream(1, 0, null, mPattern)));
+    assertEquals("gzip", mAcceptEncoding.get());
+  }
+
+  @Test
+  public void getStream_reportsValidatorsAndFreshness() throws Exception {
+    long before = System.currentTimeMillis();
+    RevalidatingStreamProvider.Response response = new StreamProviderHttp().getStream(3, 0, null, mPattern, null);
+    assertTrue(response.isModified());
+    assertArrayEquals(BODY, readAll(response.getStream()));
+    CacheMetadata metadata = response.getMetadata();
+    assertEquals("\"v1\"", metadata.getEntityTag());
+    assertTrue(metadata.getExpires() >= before + 60 * 1000);
+    assertFalse(metadata.isStale());
+  }
+
+  @Test
+  public void getStream_revalidatesUnchangedTileWithoutBody() throws Exception {
+    CacheMetadata stale = new CacheMetadata("\"v1\"", null, 0);
+    assertTrue(stale.isStale());
+    RevalidatingStreamProvider.Response response = new StreamProviderHttp().getStream(3, 0, null, mPattern, stale);
+    assertFalse(response.isModified());
+    assertEquals("\"v1\"", response.getMetadata().getEntityTag());
+    assertFalse(response.getMetadata().isStale());
+  }
+
+  @Test
+  public void getStream_refetchesChangedTile() throws Exception {
+    CacheMetadata stale = new CacheMetadata("\"v0\"", null, 0);
+    RevalidatingStreamProvider.Response response = new StreamProviderHttp().getStream(3, 0, null, mPattern, stale);
+    assertTrue(response.isModified());
+    assertArrayEquals(BODY, readAll(response.getStream()));
+    assertEquals("\"v1\"", response.getMetadata().getEntityTag());
+  }
+
+  @Test
+  public void getStream_usesDefaultMaxAgeWhenServerDoesNotSay() throws Exception {
+    StreamProviderHttp streamProvider = new StreamProviderHttp();
+    streamProvider.setDefaultMaxAge(0);
+    CacheMetadata metadata = streamProvider.getStream(0, 0, null, mPattern, null).getMetadata();
+    assertTrue(metadata.isStale());
+    assertFalse(metadata.hasValidators());
+  }
+
+  @Test
+  public void cacheMetadata_survivesEncoding() {
+    CacheMetadata metadata = CacheMetadata.decode(new CacheMetadata("\"abc\"", "Wed, 21 Oct 2015 07:28:00 GMT", 1234L).encode());
+    assertEquals("\"abc\"", metadata.getEntityTag());
+    assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", metadata.getLastModified());
+    assertEquals(1234L, metadata.getExpires());
+    assertNull(CacheMetadata.decode(""));
+    assertNull(new CacheMetadata(null, null, 0).getEntityTag());
+    assertNull(CacheMetadata.decode(new CacheMetadata(null, null, 5).encode()).getLastModified());
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void getStream_throwsFileNotFoundFor404() throws Exception {
+    new StreamProviderHttp().getStream(404, 0, null, mPattern);
+  }
+
+  @Test
+  public void getStream_throwsIOExceptionForServerError() throws Exception {
+    try {
+      new StreamProviderHttp().getStream(500, 0, null, mPattern);
+      fail();
+    } catch (FileNotFoundException e) {
+      fail("a server error is not a missing tile");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = SocketTimeoutException.class)
+  public void getStream_timesOutOnSlowServer() throws Exception {
+    new StreamProviderHttp(1000, 200, 4).getStream(0, 1000, null, mPattern);
+  }
+
+  @Test
+  public void getStream_reusesConnections() throws Exception {
+    StreamProviderHttp streamProvider = new StreamProviderHttp();
+    for (int i = 0; i < 5; i++) {
+      readAll(streamProvider.getStream(0, 0, null, mPattern));
+    }
+    assertEquals(1, mClientPorts.size());
+  }
+
+  @Test
+  public void getStream_limitsRequestsInFlightPerHost() throws Exception {
+    int limit = 2;
+    StreamProviderHttp streamProvider = new StreamProviderHttp(5000, 5000, limit);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      Set<Future<byte[]>> futures = new HashSet<>();
+      for (int i = 0; i < 16; i++) {
+        futures.add(executor.submit(() -> readAll(streamProvider.getStream(0, 50, null, mPattern))));
+      }
+      for (Future<byte[]> future : futures) {
+        assertArrayEquals(BODY, future.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertTrue(mMaxInFlight.get() <= limit);
+    assertTrue(mMaxInFlight.get() > 0);
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.github.moagrius.tileview.io;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class TilePathTemplateTest {
+
+  private static final int[] VALUES = {0, 7, 42, 123, 4567, -5};
+
+  private static void assertRendersLikeFormat(String pattern) {
+    TilePathTemplate template = TilePathTemplate.compile(pattern);
+    for (int column : VALUES) {
+      for (int row : VALUES) {
+        assertEquals(pattern, String.format(Locale.US, pattern, column, row), template.render(column, row));
+      }
+    }
+  }
+
+  @Test
+  public void indexedArguments() {
+    assertRendersLikeFormat("tiles/phi-500-%1$d_%2$d.jpg");
+    assertRendersLikeFormat("tiles/%2$d/%1$d.png");
+    assertRendersLikeFormat("%1$d");
+  }
+
+  @Test
+  public void plainArgumentsAreColumnThenRow() {
+    assertRendersLikeFormat("tiles/%d_%d.png");
+    assertRendersLikeFormat("%d-%d");
+  }
+
+  @Test
+  public void plainArgumentsIgnoreIndexedOnes() {
+    assertRendersLikeFormat("%2$d/%d/%d");
+  }
+
+  @Test
+  public void percentSigns() {
+    assertRendersLikeFormat("100%%/%1$d_%2$d.png");
+    assertRendersLikeFormat("%1$d%%%2$d%%");
+  }
+
+  @Test
+  public void widths() {
+    assertRendersLikeFormat("tiles/%1$03d_%2$03d.png");
+    assertRendersLikeFormat("tiles/%1$4d_%2$2d.png");
+    assertRendersLikeFormat("%05d/%d");
+  }
+
+  @Test
+  public void otherPatternsFallBackToFormat() {
+    assertRendersLikeFormat("tiles/%1$s_%2$s.png");
+    assertRendersLikeFormat("tiles/%1$x/%2$X.png");
+    assertRendersLikeFormat("tiles/%1$,d_%2$d.png");
+  }
+
+  @Test
+  public void noArguments() {
+    assertRendersLikeFormat("tiles/blank.png");
+    assertRendersLikeFormat("");
+  }
+
+  @Test
+  public void appendsToAnExistingBuilder() {
+    StringBuilder builder = new StringBuilder("http://host/");
+    TilePathTemplate.compile("%1$d/%2$d.png").appendTo(builder, 3, 4);
+    assertEquals("http://host/3/4.png", builder.toString());
+  }
+
+  @Test
+  public void patternsAreCompiledOnce() {
+    TilePathTemplate template = TilePathTemplate.from("tiles/%d_%d.png");
+    assertSame(template, TilePathTemplate.from("tiles/%d_%d.png"));
+    assertSame(template, TilePathTemplate.from(template));
+    assertEquals("tiles/%d_%d.png", template.getPattern());
+  }
+
+}
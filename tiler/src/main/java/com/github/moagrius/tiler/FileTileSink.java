@@ -0,0 +1,56 @@
+package com.github.moagrius.tiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Writes one file per tile.
+ *
+ * The pattern is the same one passed to TileView.Builder.defineZoomLevel (%1$d is the column, %2$d the row), with
+ * {zoom} replaced by the zoom of each level.  Uniform tiles are written like any other (files can't share bytes), so
+ * skipping them only saves encoding.
+ */
+public class FileTileSink implements TileSink {
+
+  public static final String ZOOM_TOKEN = "{zoom}";
+
+  private final String mPattern;
+
+  public FileTileSink(String pattern) {
+    mPattern = pattern;
+  }
+
+  public String getPattern(int zoom) {
+    return mPattern.replace(ZOOM_TOKEN, String.valueOf(zoom));
+  }
+
+  @Override
+  public void write(int zoom, int column, int row, byte[] encoded) throws IOException {
+    File file = new File(String.format(Locale.US, getPattern(zoom), column, row));
+    File parent = file.getParentFile();
+    if (parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+      throw new IOException("Unable to create " + parent);
+    }
+    OutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(encoded);
+    } finally {
+      outputStream.close();
+    }
+  }
+
+  @Override
+  public void writeUniform(int zoom, int column, int row, int color, byte[] encoded) throws IOException {
+    // a missing file would leave the cell empty in TileView, rather than the color
+    write(zoom, column, row, encoded);
+  }
+
+  @Override
+  public void close() {
+    // no op
+  }
+
+}
@@ -0,0 +1,125 @@
+package com.github.moagrius.tiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes every tile into a single tile pack, the format read by com.github.moagrius.tileview.io.TilePack
+ * (see that class for the layout).
+ *
+ * Tiles are appended as they arrive, in any order.  The index is kept in memory and written, along with the header,
+ * on close.  Uniform tiles that encode the same (same color and padding) are stored once, and every index entry for them
+ * points to the same bytes.
+ */
+public class PackTileSink implements TileSink {
+
+  private static final int MAGIC = 0x5456504B; // TVPK
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int LEVEL_SIZE = 20;
+  private static final int INDEX_ENTRY_SIZE = 12;
+  // we map the whole pack on the device
+  private static final long MAXIMUM_SIZE = Integer.MAX_VALUE;
+
+  private final RandomAccessFile mFile;
+  private final int mTileSize;
+  private final Level[] mLevels;
+  // by the shared encoded array - the builder hands out one per color and padding
+  private final Map<byte[], long[]> mUniformEntries = new IdentityHashMap<>();
+  private long mPosition;
+
+  /**
+   * @param columns The number of columns at each zoom level, starting at 0.
+   * @param rows The number of rows at each zoom level, starting at 0.
+   */
+  public PackTileSink(File file, int tileSize, int[] columns, int[] rows) throws IOException {
+    mFile = new RandomAccessFile(file, "rw");
+    mFile.setLength(0);
+    mTileSize = tileSize;
+    mLevels = new Level[columns.length];
+    for (int zoom = 0; zoom < mLevels.length; zoom++) {
+      mLevels[zoom] = new Level(columns[zoom], rows[zoom]);
+    }
+    // tiles start right after the header, which we'll fill in on close
+    mPosition = HEADER_SIZE + LEVEL_SIZE * mLevels.length;
+  }
+
+  private long append(byte[] encoded) throws IOException {
+    long offset = mPosition;
+    if (offset + encoded.length > MAXIMUM_SIZE) {
+      throw new IOException("Tile packs are limited to 2GB");
+    }
+    mFile.seek(offset);
+    mFile.write(encoded);
+    mPosition += encoded.length;
+    return offset;
+  }
+
+  @Override
+  public synchronized void write(int zoom, int column, int row, byte[] encoded) throws IOException {
+    mLevels[zoom].set(column, row, append(encoded), encoded.length);
+  }
+
+  @Override
+  public synchronized void writeUniform(int zoom, int column, int row, int color, byte[] encoded) throws IOException {
+    long[] entry = mUniformEntries.get(encoded);
+    if (entry == null) {
+      entry = new long[]{append(encoded), encoded.length};
+      mUniformEntries.put(encoded, entry);
+    }
+    mLevels[zoom].set(column, row, entry[0], (int) entry[1]);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      long[] indexOffsets = new long[mLevels.length];
+      mFile.seek(mPosition);
+      for (int zoom = 0; zoom < mLevels.length; zoom++) {
+        Level level = mLevels[zoom];
+        indexOffsets[zoom] = mFile.getFilePointer();
+        for (int i = 0; i < level.offsets.length; i++) {
+          mFile.writeLong(level.offsets[i]);
+          mFile.writeInt(level.lengths[i]);
+        }
+      }
+      if (mFile.getFilePointer() > MAXIMUM_SIZE) {
+        throw new IOException("Tile packs are limited to 2GB");
+      }
+      mFile.seek(0);
+      mFile.writeInt(MAGIC);
+      mFile.writeInt(VERSION);
+      mFile.writeInt(mTileSize);
+      mFile.writeInt(mLevels.length);
+      for (int zoom = 0; zoom < mLevels.length; zoom++) {
+        mFile.writeInt(zoom);
+        mFile.writeInt(mLevels[zoom].columns);
+        mFile.writeInt(mLevels[zoom].rows);
+        mFile.writeLong(indexOffsets[zoom]);
+      }
+    } finally {
+      mFile.close();
+    }
+  }
+
+  private static class Level {
+    final int columns;
+    final int rows;
+    final long[] offsets;
+    final int[] lengths;
+    Level(int columns, int rows) {
+      this.columns = columns;
+      this.rows = rows;
+      offsets = new long[columns * rows];
+      lengths = new int[columns * rows];
+    }
+    void set(int column, int row, long offset, int length) {
+      offsets[row * columns + column] = offset;
+      lengths[row * columns + column] = length;
+    }
+  }
+
+}
@@ -0,0 +1,257 @@
+package com.github.moagrius.tiler;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+
+/**
+ * Cuts a source image into every detail level TileView expects: level z is the image at 1 / 2^z scale, cut into
+ * tileSize tiles, addressed by column and row.
+ *
+ * The source is read in horizontal strips and never held in memory as a whole.  Each level keeps a buffer of at most a
+ * strip (or a tile row) of its own pixels - when a level has a full row of tiles, it cuts them, then box filters those
+ * rows down by half and hands them to the next level.  Reading and downsampling happen on the calling thread, encoding
+ * and writing tiles happens on a pool sized to the number of cores.
+ *
+ * Edge tiles are padded to the full tile size with the background color, since TileView draws every tile into a full
+ * cell.
+ */
+public class PyramidBuilder {
+
+  // how many tiles can be waiting on encoding per thread, before we stop reading
+  private static final int IN_FLIGHT_PER_THREAD = 4;
+
+  private final int mTileSize;
+  private final TileEncoder mEncoder;
+  private final TileSink mSink;
+  private final boolean mShouldSkipUniformTiles;
+  private final int mBackgroundColor;
+  private final int mThreadCount;
+  // by color and the size of the part that isn't padding - a padded edge tile isn't the same as an interior tile
+  private final Map<Long, byte[]> mUniformEncodings = new ConcurrentHashMap<>();
+  private final AtomicInteger mTileCount = new AtomicInteger();
+  private final AtomicInteger mUniformTileCount = new AtomicInteger();
+
+  private ExecutorService mExecutor;
+  private Semaphore mInFlight;
+  private volatile Exception mError;
+  private Level[] mLevels;
+
+  public PyramidBuilder(int tileSize, TileEncoder encoder, TileSink sink, boolean shouldSkipUniformTiles, int backgroundColor, int threadCount) {
+    mTileSize = tileSize;
+    mEncoder = encoder;
+    mSink = sink;
+    mShouldSkipUniformTiles = shouldSkipUniformTiles;
+    mBackgroundColor = backgroundColor;
+    mThreadCount = threadCount;
+  }
+
+  /**
+   * @return The number of levels needed so the last one fits in a single tile.
+   */
+  public static int getLevelCount(int width, int height, int tileSize) {
+    int count = 1;
+    while (scale(width, count - 1) > tileSize || scale(height, count - 1) > tileSize) {
+      count++;
+    }
+    return count;
+  }
+
+  // ceil(size / 2^zoom), which is also what repeated halving (rounding up) gives us
+  public static int scale(int size, int zoom) {
+    return (int) ((size + (1L << zoom) - 1) >> zoom);
+  }
+
+  public static int getGridSize(int size, int zoom, int tileSize) {
+    return (scale(size, zoom) + tileSize - 1) / tileSize;
+  }
+
+  public int getTileCount() {
+    return mTileCount.get();
+  }
+
+  public int getUniformTileCount() {
+    return mUniformTileCount.get();
+  }
+
+  public void build(ImageReader reader, int levelCount, int stripHeight) throws Exception {
+    int width = reader.getWidth(0);
+    int height = reader.getHeight(0);
+    // keep strips a whole number of tile rows, so level 0 never has to hold a partial row between strips
+    stripHeight = Math.max(mTileSize, stripHeight / mTileSize * mTileSize);
+    mLevels = new Level[levelCount];
+    for (int zoom = 0; zoom < levelCount; zoom++) {
+      mLevels[zoom] = new Level(zoom, scale(width, zoom));
+    }
+    mExecutor = Executors.newFixedThreadPool(mThreadCount);
+    mInFlight = new Semaphore(mThreadCount * IN_FLIGHT_PER_THREAD);
+    try {
+      ImageReadParam param = reader.getDefaultReadParam();
+      for (int y = 0; y < height; y += stripHeight) {
+        int rows = Math.min(stripHeight, height - y);
+        param.setSourceRegion(new Rectangle(0, y, width, rows));
+        BufferedImage strip = reader.read(0, param);
+        int[] pixels = strip.getRGB(0, 0, width, rows, null, 0, width);
+        push(mLevels[0], pixels, rows);
+        throwIfFailed();
+      }
+      // flush partial tile rows at the bottom edge, top down, since each level feeds the next
+      for (Level level : mLevels) {
+        if (level.bufferedRows > 0) {
+          emit(level, level.bufferedRows);
+        }
+      }
+      mExecutor.shutdown();
+      mExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      throwIfFailed();
+    } finally {
+      mExecutor.shutdownNow();
+    }
+  }
+
+  private void throwIfFailed() throws Exception {
+    if (mError != null) {
+      throw mError;
+    }
+  }
+
+  private void push(Level level, int[] pixels, int rows) throws Exception {
+    level.append(pixels, rows);
+    while (level.bufferedRows >= mTileSize) {
+      emit(level, mTileSize);
+    }
+  }
+
+  // cut a row of tiles from the top of the level's buffer, pass those rows (at half size) down, then drop them
+  private void emit(Level level, int rows) throws Exception {
+    cut(level, rows);
+    if (level.zoom + 1 < mLevels.length) {
+      int[] half = downsample(level.buffer, level.width, rows);
+      push(mLevels[level.zoom + 1], half, (rows + 1) / 2);
+    }
+    level.discard(rows);
+    level.row++;
+  }
+
+  private void cut(Level level, int rows) throws InterruptedException {
+    int columns = (level.width + mTileSize - 1) / mTileSize;
+    for (int column = 0; column < columns; column++) {
+      int left = column * mTileSize;
+      int columnWidth = Math.min(mTileSize, level.width - left);
+      int[] tile = new int[mTileSize * mTileSize];
+      if (columnWidth < mTileSize || rows < mTileSize) {
+        Arrays.fill(tile, mBackgroundColor);
+      }
+      int first = level.buffer[left];
+      boolean isUniform = true;
+      for (int y = 0; y < rows; y++) {
+        int offset = y * level.width + left;
+        System.arraycopy(level.buffer, offset, tile, y * mTileSize, columnWidth);
+        for (int x = 0; isUniform && x < columnWidth; x++) {
+          isUniform = level.buffer[offset + x] == first;
+        }
+      }
+      submit(level.zoom, column, level.row, tile, isUniform, first, getUniformKey(first, columnWidth, rows));
+    }
+  }
+
+  // color in the top half, then the width and height that are the color (the rest is padding)
+  private static long getUniformKey(int color, int width, int height) {
+    return ((long) color << 32) | ((long) width << 16) | height;
+  }
+
+  private void submit(int zoom, int column, int row, int[] tile, boolean isUniform, int color, long uniformKey) throws InterruptedException {
+    mInFlight.acquire();
+    mExecutor.execute(() -> {
+      try {
+        if (isUniform && mShouldSkipUniformTiles) {
+          byte[] encoded = mUniformEncodings.get(uniformKey);
+          if (encoded == null) {
+            encoded = mEncoder.encode(tile, mTileSize);
+            // if another thread got there first, share its bytes, so sinks can recognize them
+            byte[] existing = mUniformEncodings.putIfAbsent(uniformKey, encoded);
+            if (existing != null) {
+              encoded = existing;
+            }
+          }
+          mSink.writeUniform(zoom, column, row, color, encoded);
+          mUniformTileCount.incrementAndGet();
+        } else {
+          mSink.write(zoom, column, row, mEncoder.encode(tile, mTileSize));
+        }
+        mTileCount.incrementAndGet();
+      } catch (Exception e) {
+        mError = e;
+      } finally {
+        mInFlight.release();
+      }
+    });
+  }
+
+  // 2x2 box filter, clamping at odd right and bottom edges
+  private static int[] downsample(int[] source, int width, int rows) {
+    int halfWidth = (width + 1) / 2;
+    int halfRows = (rows + 1) / 2;
+    int[] destination = new int[halfWidth * halfRows];
+    for (int y = 0; y < halfRows; y++) {
+      int top = 2 * y * width;
+      int bottom = Math.min(2 * y + 1, rows - 1) * width;
+      for (int x = 0; x < halfWidth; x++) {
+        int left = 2 * x;
+        int right = Math.min(left + 1, width - 1);
+        destination[y * halfWidth + x] = average(source[top + left], source[top + right], source[bottom + left], source[bottom + right]);
+      }
+    }
+    return destination;
+  }
+
+  private static int average(int a, int b, int c, int d) {
+    int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >> 2;
+    int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+    int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+    int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+    return (alpha << 24) | (red << 16) | (green << 8) | blue;
+  }
+
+  private static class Level {
+    final int zoom;
+    final int width;
+    int[] buffer = new int[0];
+    int bufferedRows;
+    int row;
+
+    Level(int zoom, int width) {
+      this.zoom = zoom;
+      this.width = width;
+    }
+
+    void append(int[] pixels, int rows) throws IOException {
+      long required = (long) (bufferedRows + rows) * width;
+      if (required > Integer.MAX_VALUE) {
+        throw new IOException("Strip too large, try a smaller memory budget");
+      }
+      if (required > buffer.length) {
+        buffer = Arrays.copyOf(buffer, (int) required);
+      }
+      System.arraycopy(pixels, 0, buffer, bufferedRows * width, rows * width);
+      bufferedRows += rows;
+    }
+
+    void discard(int rows) {
+      System.arraycopy(buffer, rows * width, buffer, 0, (bufferedRows - rows) * width);
+      bufferedRows -= rows;
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package com.github.moagrius.tiler;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encodes square ARGB pixel arrays to JPEG or PNG.  Each thread gets its own ImageWriter, since they're not thread safe.
+ */
+public class TileEncoder {
+
+  private final String mFormat;
+  private final float mQuality;
+  private final boolean mHasAlpha;
+  private final ThreadLocal<ImageWriter> mWriters = new ThreadLocal<>();
+
+  public TileEncoder(String format, float quality) {
+    mFormat = format.equals("jpeg") ? "jpg" : format;
+    mQuality = quality;
+    // jpeg doesn't do alpha, and ImageIO will write garbage if we hand it an ARGB image
+    mHasAlpha = !mFormat.equals("jpg");
+    if (!ImageIO.getImageWritersByFormatName(mFormat).hasNext()) {
+      throw new IllegalArgumentException("No image writer for format: " + format);
+    }
+  }
+
+  public String getFormat() {
+    return mFormat;
+  }
+
+  private ImageWriter getWriter() {
+    ImageWriter writer = mWriters.get();
+    if (writer == null) {
+      Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(mFormat);
+      writer = writers.next();
+      mWriters.set(writer);
+    }
+    return writer;
+  }
+
+  public byte[] encode(int[] pixels, int size) throws IOException {
+    BufferedImage image = new BufferedImage(size, size, mHasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, size, size, pixels, 0, size);
+    ImageWriter writer = getWriter();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    if (param.canWriteCompressed() && !mHasAlpha) {
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(mQuality);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * size / 4);
+    ImageOutputStream outputStream = new MemoryCacheImageOutputStream(bytes);
+    try {
+      writer.setOutput(outputStream);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      outputStream.close();
+      writer.reset();
+    }
+    return bytes.toByteArray();
+  }
+
+}
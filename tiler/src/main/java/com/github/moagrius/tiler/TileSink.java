@@ -0,0 +1,19 @@
+package com.github.moagrius.tiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives encoded tiles.  Implementations must be thread safe, tiles are written from every encoding thread.
+ */
+public interface TileSink extends Closeable {
+
+  void write(int zoom, int column, int row, byte[] encoded) throws IOException;
+
+  /**
+   * Called instead of write for a tile that's a single color, when uniform tiles are being skipped.
+   * The encoded bytes are the same array for every uniform tile of that color and padding.
+   */
+  void writeUniform(int zoom, int column, int row, int color, byte[] encoded) throws IOException;
+
+}
@@ -0,0 +1,139 @@
+package com.github.moagrius.tiler;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Command line entry point - cuts one large image into a full TileView tile pyramid, as files or as a tile pack.
+ *
+ * Plain Java (ImageIO), so it runs anywhere there's a JVM, no Android required.
+ */
+public class Tiler {
+
+  private static final String USAGE = String.join("\n",
+      "usage: tiler [options] <image>",
+      "",
+      "  --output <pattern>   write one file per tile, e.g., \"tiles/phi-{zoom}-%1$d_%2$d.jpg\"",
+      "                       (%1$d is the column, %2$d the row, {zoom} the detail level)",
+      "  --pack <file>        write every tile into a single tile pack instead",
+      "  --tile-size <px>     default 256",
+      "  --levels <n>         number of detail levels, default is enough that the last fits in one tile",
+      "  --format <jpg|png>   default is the output pattern's extension, or jpg",
+      "  --quality <0-1>      jpeg quality, default 0.85",
+      "  --threads <n>        encoding threads, default is the number of cores",
+      "  --memory <mb>        budget for source strips, default 256",
+      "  --skip-uniform       encode single color tiles once (packs also store one copy and share it)",
+      "  --background <rgb>   hex color used to pad edge tiles, default 000000"
+  );
+
+  private static final int BYTES_PER_PIXEL = 4;
+  // the strip as decoded, the strip as ARGB ints, and level 0's buffer of it
+  private static final int STRIP_COPIES = 3;
+
+  public static void main(String[] args) throws Exception {
+    String input = null;
+    String output = null;
+    String pack = null;
+    String format = null;
+    int tileSize = 256;
+    int levels = 0;
+    float quality = 0.85f;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int memory = 256;
+    boolean shouldSkipUniformTiles = false;
+    int background = 0xFF000000;
+    try {
+      for (int i = 0; i < args.length; i++) {
+        switch (args[i]) {
+          case "--output": output = args[++i]; break;
+          case "--pack": pack = args[++i]; break;
+          case "--tile-size": tileSize = Integer.parseInt(args[++i]); break;
+          case "--levels": levels = Integer.parseInt(args[++i]); break;
+          case "--format": format = args[++i].toLowerCase(Locale.US); break;
+          case "--quality": quality = Float.parseFloat(args[++i]); break;
+          case "--threads": threads = Integer.parseInt(args[++i]); break;
+          case "--memory": memory = Integer.parseInt(args[++i]); break;
+          case "--skip-uniform": shouldSkipUniformTiles = true; break;
+          case "--background": background = 0xFF000000 | Integer.parseInt(args[++i], 16); break;
+          default:
+            if (args[i].startsWith("--") || input != null) {
+              throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            input = args[i];
+        }
+      }
+      if (input == null || (output == null) == (pack == null)) {
+        throw new IllegalArgumentException("An image, and exactly one of --output or --pack, are required");
+      }
+    } catch (RuntimeException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(1);
+      return;
+    }
+    if (format == null) {
+      format = output != null && output.toLowerCase(Locale.US).endsWith(".png") ? "png" : "jpg";
+    }
+
+    ImageInputStream inputStream = ImageIO.createImageInputStream(new File(input));
+    if (inputStream == null) {
+      throw new IllegalArgumentException("Unable to read " + input);
+    }
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+    if (!readers.hasNext()) {
+      throw new IllegalArgumentException("No image reader for " + input);
+    }
+    ImageReader reader = readers.next();
+    // not seek forward only - we read the image one strip at a time
+    reader.setInput(inputStream, false, true);
+    int width = reader.getWidth(0);
+    int height = reader.getHeight(0);
+    if (levels <= 0) {
+      levels = PyramidBuilder.getLevelCount(width, height, tileSize);
+    }
+    int stripHeight = (int) Math.min(height, (long) memory * 1024 * 1024 / ((long) width * BYTES_PER_PIXEL * STRIP_COPIES));
+
+    TileSink sink;
+    if (pack != null) {
+      int[] columns = new int[levels];
+      int[] rows = new int[levels];
+      for (int zoom = 0; zoom < levels; zoom++) {
+        columns[zoom] = PyramidBuilder.getGridSize(width, zoom, tileSize);
+        rows[zoom] = PyramidBuilder.getGridSize(height, zoom, tileSize);
+      }
+      sink = new PackTileSink(new File(pack), tileSize, columns, rows);
+    } else {
+      sink = new FileTileSink(output);
+    }
+
+    long start = System.currentTimeMillis();
+    PyramidBuilder builder = new PyramidBuilder(tileSize, new TileEncoder(format, quality), sink, shouldSkipUniformTiles, background, threads);
+    try {
+      builder.build(reader, levels, stripHeight);
+    } finally {
+      sink.close();
+      reader.dispose();
+      inputStream.close();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    System.out.printf(Locale.US, "%dx%d, %d levels, %d tiles (%d uniform) in %.1fs%n",
+        width, height, levels, builder.getTileCount(), builder.getUniformTileCount(), elapsed / 1000f);
+    if (sink instanceof FileTileSink) {
+      FileTileSink fileTileSink = (FileTileSink) sink;
+      System.out.printf(Locale.US, "new TileView.Builder(tileView)%n    .setSize(%d, %d)%n", width, height);
+      if (tileSize != 256) {
+        System.out.printf(Locale.US, "    .setTileSize(%d)%n", tileSize);
+      }
+      for (int zoom = 0; zoom < levels; zoom++) {
+        System.out.printf(Locale.US, "    .defineZoomLevel(%d, \"%s\")%n", zoom, fileTileSink.getPattern(zoom));
+      }
+    }
+  }
+
+}
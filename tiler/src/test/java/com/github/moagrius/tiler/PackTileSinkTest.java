@@ -0,0 +1,81 @@
+package com.github.moagrius.tiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class PackTileSinkTest {
+
+  private static final int TILE_SIZE = 256;
+
+  private File mFile;
+
+  @Before
+  public void setUp() throws IOException {
+    mFile = File.createTempFile("tiler", ".pack");
+  }
+
+  @After
+  public void tearDown() {
+    mFile.delete();
+  }
+
+  // the offset and length of a tile, read from the level 0 index
+  private long[] readEntry(int columns, int column, int row) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(mFile, "r");
+    try {
+      // magic, version, tile size, level count, then level 0: zoom, columns, rows, index offset
+      file.seek(16 + 12);
+      long index = file.readLong();
+      file.seek(index + (row * columns + column) * 12L);
+      return new long[]{file.readLong(), file.readInt()};
+    } finally {
+      file.close();
+    }
+  }
+
+  @Test
+  public void uniformTilesShareBytesOnlyWhenTheEncodingIsShared() throws IOException {
+    PackTileSink sink = new PackTileSink(mFile, TILE_SIZE, new int[]{3}, new int[]{1});
+    byte[] interior = {1, 2, 3, 4};
+    byte[] edge = {1, 2, 3, 4, 5};
+    sink.writeUniform(0, 0, 0, 0xFFFFFFFF, interior);
+    sink.writeUniform(0, 1, 0, 0xFFFFFFFF, interior);
+    // same color, but padded, so a different encoding
+    sink.writeUniform(0, 2, 0, 0xFFFFFFFF, edge);
+    sink.close();
+    long[] first = readEntry(3, 0, 0);
+    long[] second = readEntry(3, 1, 0);
+    long[] third = readEntry(3, 2, 0);
+    assertEquals(first[0], second[0]);
+    assertEquals(4, first[1]);
+    assertTrue(third[0] != first[0]);
+    assertEquals(5, third[1]);
+  }
+
+  @Test
+  public void tilesAreAppended() throws IOException {
+    PackTileSink sink = new PackTileSink(mFile, TILE_SIZE, new int[]{2}, new int[]{1});
+    sink.write(0, 1, 0, new byte[]{9, 9});
+    sink.write(0, 0, 0, new byte[]{7});
+    sink.close();
+    long[] first = readEntry(2, 0, 0);
+    long[] second = readEntry(2, 1, 0);
+    assertEquals(second[0] + 2, first[0]);
+    assertEquals(1, first[1]);
+    RandomAccessFile file = new RandomAccessFile(mFile, "r");
+    try {
+      file.seek(first[0]);
+      assertEquals(7, file.readByte());
+    } finally {
+      file.close();
+    }
+  }
+
+}
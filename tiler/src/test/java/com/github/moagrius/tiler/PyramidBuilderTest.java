@@ -0,0 +1,182 @@
+package com.github.moagrius.tiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import static org.junit.Assert.*;
+
+public class PyramidBuilderTest {
+
+  private static final int TILE_SIZE = 256;
+  private static final int WHITE = 0xFFFFFFFF;
+  private static final int BACKGROUND = 0xFF000000;
+
+  private File mDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    mDirectory = File.createTempFile("tiler", "");
+    mDirectory.delete();
+    mDirectory.mkdirs();
+  }
+
+  @After
+  public void tearDown() {
+    delete(mDirectory);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private ImageReader createReader(int width, int height, int color) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.setRGB(x, y, color);
+      }
+    }
+    File file = new File(mDirectory, "source.png");
+    ImageIO.write(image, "png", file);
+    ImageInputStream inputStream = ImageIO.createImageInputStream(file);
+    ImageReader reader = ImageIO.getImageReaders(inputStream).next();
+    reader.setInput(inputStream);
+    return reader;
+  }
+
+  private static BufferedImage decode(byte[] encoded) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(encoded));
+  }
+
+  @Test
+  public void scaleRoundsUp() {
+    assertEquals(600, PyramidBuilder.scale(600, 0));
+    assertEquals(300, PyramidBuilder.scale(600, 1));
+    assertEquals(150, PyramidBuilder.scale(300, 1));
+    assertEquals(151, PyramidBuilder.scale(301, 1));
+    assertEquals(3, PyramidBuilder.getGridSize(600, 0, TILE_SIZE));
+    assertEquals(2, PyramidBuilder.getGridSize(600, 1, TILE_SIZE));
+    assertEquals(3, PyramidBuilder.getLevelCount(600, 300, TILE_SIZE));
+  }
+
+  @Test
+  public void uniformEdgeTilesArePadded() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    PyramidBuilder builder = new PyramidBuilder(TILE_SIZE, new TileEncoder("png", 1f), sink, true, BACKGROUND, 2);
+    builder.build(createReader(600, 300, WHITE), 1, 300);
+    // 3 columns by 2 rows, every one of them white
+    assertEquals(6, builder.getTileCount());
+    assertEquals(6, builder.getUniformTileCount());
+    // interior tiles share one encoding
+    byte[] interior = sink.get(0, 0, 0);
+    assertSame(interior, sink.get(0, 1, 0));
+    // edge tiles don't share it, since they're padded
+    byte[] right = sink.get(0, 2, 0);
+    byte[] bottom = sink.get(0, 0, 1);
+    byte[] corner = sink.get(0, 2, 1);
+    assertNotSame(interior, right);
+    assertNotSame(interior, bottom);
+    assertNotSame(right, corner);
+    assertSame(bottom, sink.get(0, 1, 1));
+    // 600 - 512 = 88 columns are white, the rest is padding
+    BufferedImage image = decode(right);
+    assertEquals(WHITE, image.getRGB(87, 0));
+    assertEquals(BACKGROUND, image.getRGB(88, 0));
+    // 300 - 256 = 44 rows are white
+    image = decode(corner);
+    assertEquals(WHITE, image.getRGB(87, 43));
+    assertEquals(BACKGROUND, image.getRGB(87, 44));
+    assertEquals(BACKGROUND, image.getRGB(88, 43));
+    assertEquals(WHITE, decode(interior).getRGB(TILE_SIZE - 1, TILE_SIZE - 1));
+  }
+
+  @Test
+  public void tilesAreNotUniformUnlessSkipping() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    PyramidBuilder builder = new PyramidBuilder(TILE_SIZE, new TileEncoder("png", 1f), sink, false, BACKGROUND, 2);
+    builder.build(createReader(600, 300, WHITE), 1, 300);
+    assertEquals(6, builder.getTileCount());
+    assertEquals(0, builder.getUniformTileCount());
+    assertNotSame(sink.get(0, 0, 0), sink.get(0, 1, 0));
+  }
+
+  @Test
+  public void levelsAreDownsampled() throws Exception {
+    RecordingSink sink = new RecordingSink();
+    PyramidBuilder builder = new PyramidBuilder(TILE_SIZE, new TileEncoder("png", 1f), sink, false, BACKGROUND, 2);
+    builder.build(createReader(600, 300, WHITE), 3, 300);
+    // 3x2, 2x1, 1x1
+    assertEquals(9, builder.getTileCount());
+    // level 1 is 300x150
+    BufferedImage image = decode(sink.get(1, 1, 0));
+    assertEquals(WHITE, image.getRGB(43, 149));
+    assertEquals(BACKGROUND, image.getRGB(44, 149));
+    assertEquals(BACKGROUND, image.getRGB(43, 150));
+    // level 2 is 150x75
+    image = decode(sink.get(2, 0, 0));
+    assertEquals(WHITE, image.getRGB(149, 74));
+    assertEquals(BACKGROUND, image.getRGB(150, 74));
+  }
+
+  @Test
+  public void fileSinkWritesUniformTiles() throws Exception {
+    String pattern = new File(mDirectory, "tiles/{zoom}/%1$d_%2$d.png").getPath();
+    FileTileSink sink = new FileTileSink(pattern);
+    PyramidBuilder builder = new PyramidBuilder(TILE_SIZE, new TileEncoder("png", 1f), sink, true, BACKGROUND, 2);
+    builder.build(createReader(600, 300, WHITE), 1, 300);
+    sink.close();
+    for (int row = 0; row < 2; row++) {
+      for (int column = 0; column < 3; column++) {
+        File file = new File(new File(mDirectory, "tiles/0"), column + "_" + row + ".png");
+        assertTrue(file.getPath(), file.isFile());
+      }
+    }
+    assertEquals(BACKGROUND, ImageIO.read(new File(mDirectory, "tiles/0/2_0.png")).getRGB(88, 0));
+  }
+
+  private static class RecordingSink implements TileSink {
+
+    private final Map<String, byte[]> mTiles = new ConcurrentHashMap<>();
+
+    byte[] get(int zoom, int column, int row) {
+      byte[] encoded = mTiles.get(zoom + "/" + column + "/" + row);
+      assertNotNull(zoom + "/" + column + "/" + row, encoded);
+      return encoded;
+    }
+
+    @Override
+    public void write(int zoom, int column, int row, byte[] encoded) {
+      mTiles.put(zoom + "/" + column + "/" + row, encoded);
+    }
+
+    @Override
+    public void writeUniform(int zoom, int column, int row, int color, byte[] encoded) {
+      mTiles.put(zoom + "/" + column + "/" + row, encoded);
+    }
+
+    @Override
+    public void close() {
+      // no op
+    }
+
+  }
+
+}